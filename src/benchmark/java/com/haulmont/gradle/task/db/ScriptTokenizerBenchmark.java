@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares reading of a large SQL script with {@link ScriptTokenizer} and with {@link ScriptSplitter}, the way
+ * {@code CubaDbTask.executeSqlScript()} read scripts before the tokenizer.
+ * <p>
+ * Arguments: number of statements (200000 by default) and number of measured runs (5 by default). Run with
+ * {@code gradle benchmark}.
+ */
+public class ScriptTokenizerBenchmark {
+
+    protected static final int WARM_UP_RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File script = File.createTempFile("benchmark", ".sql");
+        try {
+            writeScript(script, statements);
+            System.out.printf("Script of %d statements, %d KB%n", statements, script.length() / 1024);
+
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                split(script);
+                tokenize(script);
+            }
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                int splitCount = split(script);
+                long splitNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int tokenizeCount = tokenize(script);
+                long tokenizeNanos = System.nanoTime() - start;
+
+                if (splitCount != tokenizeCount) {
+                    throw new IllegalStateException("Splitter returned " + splitCount + " statements, tokenizer "
+                            + tokenizeCount);
+                }
+                System.out.printf("Run %d: splitter %d ms, tokenizer %d ms%n",
+                        i + 1, splitNanos / 1_000_000, tokenizeNanos / 1_000_000);
+            }
+        } finally {
+            FileUtils.deleteQuietly(script);
+        }
+    }
+
+    protected static void writeScript(File file, int statements) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            sb.append("insert into SEC_USER (ID, LOGIN, NAME) values ('").append(UUID.randomUUID())
+                    .append("', 'user").append(i).append("', 'User ").append(i).append("')^\n");
+        }
+        FileUtils.writeStringToFile(file, sb.toString(), StandardCharsets.UTF_8);
+    }
+
+    protected static int split(File file) throws IOException {
+        String script = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        script = script.replaceAll("[\r\n]+", System.getProperty("line.separator"));
+        List<String> commands = new ScriptSplitter("^").split(script);
+        return commands.size();
+    }
+
+    protected static int tokenize(File file) throws IOException {
+        int count = 0;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+             ScriptTokenizer tokenizer = new ScriptTokenizer(reader, "^")) {
+            while (tokenizer.hasNext()) {
+                tokenizer.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.enhance.CubaEnhancer
+import com.haulmont.gradle.enhance.PersistenceDescriptorIndex
+import com.haulmont.gradle.utils.HashUtils
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.SourceSet
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Enhances entity classes as a separate task. Unlike {@link CubaEnhancingAction} attached to compile tasks, the task
+ * does not modify compiler output: raw classes are copied to {@link #getOutputDir()} and enhanced there, so the result
+ * can be taken from the build cache and compile tasks stay up-to-date.
+ * <p>
+ * The plugin creates the task when {@code cacheableEnhancingEnabled} is set for the source set and replaces classes
+ * directories of the source set output with the output directory of the task.
+ */
+@CacheableTask
+class CubaCacheableEnhancing extends DefaultTask {
+
+    protected static final List<String> DEFAULT_METADATA_PATTERNS = ['**/*-metadata.xml', '**/metadata.xml']
+
+    @Internal
+    String sourceSetName
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    FileCollection rawClassesDirs
+
+    @OutputDirectory
+    File outputDir
+
+    CubaCacheableEnhancing() {
+        setDescription('Enhances entity classes')
+        setGroup('Build')
+    }
+
+    @Classpath
+    FileCollection getCompileClasspath() {
+        return sourceSet.compileClasspath
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    FileCollection getDescriptorFiles() {
+        def config = enhancingConfig
+        def patterns = []
+        patterns.addAll(config.persistenceConfig ? config.persistenceConfig.tokenize() : PersistenceDescriptorIndex.DEFAULT_PERSISTENCE_PATTERNS)
+        patterns.addAll(config.metadataConfig ? config.metadataConfig.tokenize() : DEFAULT_METADATA_PATTERNS)
+
+        return project.fileTree(sourceSetName == 'main' ? 'src' : 'test').matching {
+            for (pattern in patterns) {
+                include "$pattern"
+            }
+        }
+    }
+
+    @Input
+    @Optional
+    String getMetadataPackageRegExp() {
+        return enhancingConfig.metadataPackageRegExp
+    }
+
+    /**
+     * Hash of the enhancing implementation, so that results cached by a previous plugin version are not reused.
+     */
+    @Input
+    String getEnhancerVersion() {
+        def digest = HashUtils.newSha1()
+        for (Class enhancingClass in [CubaEnhancer, CubaEnhancingAction, PersistenceDescriptorIndex]) {
+            def resourceName = enhancingClass.name.replace('.', '/') + '.class'
+            enhancingClass.classLoader.getResourceAsStream(resourceName).withCloseable { stream ->
+                digest.update(stream.bytes)
+            }
+        }
+        return HashUtils.toHex(digest.digest())
+    }
+
+    @TaskAction
+    void enhance() {
+        project.logger.info("[CubaEnhancing] Copy classes of '$sourceSetName' source set to $outputDir")
+        project.sync {
+            from rawClassesDirs
+            into outputDir
+        }
+
+        def enhancingAction = new CubaEnhancingAction(project, sourceSetName, true)
+        enhancingAction.classesDir = outputDir
+        enhancingAction.performAction(name)
+    }
+
+    @Internal
+    protected SourceSet getSourceSet() {
+        return project.sourceSets.getByName(sourceSetName)
+    }
+
+    @Internal
+    protected def getEnhancingConfig() {
+        return sourceSetName == 'main' ? project.entitiesEnhancing.main : project.entitiesEnhancing.test
+    }
+}
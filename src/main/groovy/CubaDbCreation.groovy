@@ -17,13 +17,19 @@
 
 
 import com.haulmont.gradle.task.db.AbstractCubaDbCreation
+import com.haulmont.gradle.task.db.ConnectionPools
+import com.haulmont.gradle.task.db.CubaHsqlStart
+import com.haulmont.gradle.task.db.CubaHsqlTask
+import com.haulmont.gradle.task.db.HsqlSnapshots
+import com.haulmont.gradle.task.db.InProcessHsqlServer
+import com.haulmont.gradle.task.db.PostgresTemplates
 import com.haulmont.gradle.task.db.ScriptSplitter
 import org.apache.commons.lang3.StringUtils
 import org.codehaus.groovy.tools.GroovyClass
+import org.gradle.api.GradleException
 import org.gradle.api.tasks.TaskAction
 
 import java.lang.reflect.Field
-import java.sql.DriverManager
 import java.sql.SQLException
 
 class CubaDbCreation extends AbstractCubaDbCreation {
@@ -37,6 +43,23 @@ class CubaDbCreation extends AbstractCubaDbCreation {
     def oracleSystemUser = 'system'
     def oracleSystemPassword = 'manager'
 
+    /**
+     * HSQL only: files of the created database are saved as a snapshot keyed by the fingerprint of the db scripts,
+     * and next runs with the same scripts restore the snapshot by file copy instead of executing the scripts.
+     * The database must be served by a CubaHsqlStart task of the build on the local host.
+     */
+    boolean hsqlSnapshotEnabled = false
+    File hsqlSnapshotsDir
+
+    /**
+     * PostgreSQL only: the created database is copied to a template database named by the fingerprint of the db
+     * scripts, and next runs with the same scripts create the database with {@code create database ... template}
+     * instead of executing the scripts. The template is rebuilt when the scripts change.
+     */
+    boolean postgresTemplateEnabled = false
+
+    protected String snapshotFingerprint
+
     @TaskAction
     @Override
     void createDb() {
@@ -70,6 +93,9 @@ class CubaDbCreation extends AbstractCubaDbCreation {
 
         GroovyClass.forName(driver)
 
+        // pooled connections to the database being dropped would prevent dropping it
+        ConnectionPools.evict(dbUrl)
+
         if (!executeSql(masterUrl, user, password, dropDbSql, true)) {
             throw new RuntimeException('[CubaDbCreation] Failed to drop database')
         }
@@ -93,6 +119,186 @@ class CubaDbCreation extends AbstractCubaDbCreation {
         }
     }
 
+    @Override
+    protected boolean restoreSnapshot() {
+        snapshotFingerprint = null
+        if (dbms == HSQL_DBMS && hsqlSnapshotEnabled) {
+            return restoreHsqlSnapshot()
+        }
+        if (dbms == POSTGRES_DBMS && postgresTemplateEnabled) {
+            return restorePostgresTemplate()
+        }
+        false
+    }
+
+    @Override
+    protected void saveSnapshot() {
+        if (snapshotFingerprint == null) {
+            return
+        }
+        if (dbms == HSQL_DBMS) {
+            saveHsqlSnapshot()
+        } else if (dbms == POSTGRES_DBMS) {
+            savePostgresTemplate()
+        }
+    }
+
+    protected boolean restoreHsqlSnapshot() {
+        CubaHsqlStart hsqlStartTask = findHsqlStartTask()
+        if (hsqlStartTask == null) {
+            return false
+        }
+
+        snapshotFingerprint = calculateScriptsFingerprint()
+        HsqlSnapshots snapshots = new HsqlSnapshots(getHsqlSnapshotsDir())
+        if (!snapshots.exists(snapshotFingerprint)) {
+            project.logger.info("[CubaDbCreation] HSQL snapshot $snapshotFingerprint is not found, " +
+                    "the database is created by scripts")
+            return false
+        }
+
+        // pooled connections would keep the database open
+        ConnectionPools.evict(dbUrl)
+
+        boolean running = CubaHsqlTask.isPortInUse(hsqlStartTask.dbPort)
+        if (running) {
+            project.logger.info("[CubaDbCreation] Stopping HSQL server to restore the snapshot")
+            if (!InProcessHsqlServer.stop(hsqlStartTask.dbPort)) {
+                executeSql(dbUrl, dbUser, dbPassword, 'shutdown', true)
+                ConnectionPools.evict(dbUrl)
+            }
+            waitForPortRelease(hsqlStartTask.dbPort)
+        }
+
+        snapshots.restore(snapshotFingerprint, hsqlStartTask.resolveDbFile())
+
+        if (running) {
+            hsqlStartTask.startDb()
+        }
+        project.logger.warn("[CubaDbCreation] Restored HSQL database '$dbName' from snapshot $snapshotFingerprint")
+        true
+    }
+
+    protected void saveHsqlSnapshot() {
+        CubaHsqlStart hsqlStartTask = findHsqlStartTask()
+
+        // writes the database state to the .script and .data files
+        getSql().execute('checkpoint')
+
+        File dbFile = hsqlStartTask.resolveDbFile()
+        if (new HsqlSnapshots(getHsqlSnapshotsDir()).save(snapshotFingerprint, dbFile)) {
+            project.logger.warn("[CubaDbCreation] Saved HSQL database '$dbName' as snapshot $snapshotFingerprint")
+        } else {
+            project.logger.warn("[CubaDbCreation] HSQL snapshot is not saved: there are no files of database " +
+                    "'$dbName' at $dbFile")
+        }
+    }
+
+    File getHsqlSnapshotsDir() {
+        hsqlSnapshotsDir ?: new File(project.gradle.gradleUserHomeDir, 'caches/cuba-plugin/hsql-snapshots')
+    }
+
+    /**
+     * @return the task starting the HSQL server of the database or null if the snapshot mode is not applicable
+     */
+    protected CubaHsqlStart findHsqlStartTask() {
+        def hostParts = host.split(':')
+        if (!(hostParts[0] in ['localhost', '127.0.0.1'])) {
+            project.logger.info("[CubaDbCreation] HSQL snapshot is not used for remote host '$host'")
+            return null
+        }
+        int port = hostParts.length > 1 ? hostParts[1] as int : 9001
+
+        def hsqlStartTask = project.rootProject.allprojects
+                .collectMany { it.tasks.withType(CubaHsqlStart).toList() }
+                .find { it.dbName == dbName && it.dbPort == port }
+        if (hsqlStartTask == null) {
+            project.logger.warn("[CubaDbCreation] HSQL snapshot is not used: there is no CubaHsqlStart task " +
+                    "for database '$dbName' on port $port")
+        } else if (hsqlStartTask.inMemory) {
+            project.logger.info("[CubaDbCreation] HSQL snapshot is not used for in-memory database '$dbName'")
+            return null
+        }
+        hsqlStartTask
+    }
+
+    protected boolean restorePostgresTemplate() {
+        configurePostgres()
+        snapshotFingerprint = calculateScriptsFingerprint()
+        String templateName = PostgresTemplates.getTemplateName(dbName, snapshotFingerprint)
+        if (!getPostgresDatabases(templateName).contains(templateName)) {
+            project.logger.info("[CubaDbCreation] PostgreSQL template '$templateName' is not found, " +
+                    "the database is created by scripts")
+            return false
+        }
+
+        GroovyClass.forName(driver)
+        ConnectionPools.evict(dbUrl)
+
+        if (!executeSql(masterUrl, dbUser, dbPassword, dropDbSql, true)) {
+            throw new RuntimeException('[CubaDbCreation] Failed to drop database')
+        }
+        if (!executeSql(masterUrl, dbUser, dbPassword, "create database \"$dbName\" with template=\"$templateName\";", false)) {
+            throw new RuntimeException("[CubaDbCreation] Failed to create database from template '$templateName'")
+        }
+        project.logger.warn("[CubaDbCreation] Created PostgreSQL database '$dbName' from template '$templateName'")
+        true
+    }
+
+    protected void savePostgresTemplate() {
+        String templateName = PostgresTemplates.getTemplateName(dbName, snapshotFingerprint)
+
+        // a database can be used as a template only if nobody is connected to it
+        closeSql()
+        ConnectionPools.evict(dbUrl)
+
+        def oldTemplates = PostgresTemplates.getTemplates(getPostgresDatabases(PostgresTemplates.getTemplatePrefix(dbName)), dbName)
+        for (String oldTemplate : oldTemplates) {
+            project.logger.info("[CubaDbCreation] Dropping outdated PostgreSQL template '$oldTemplate'")
+            executeSql(masterUrl, dbUser, dbPassword, "drop database if exists \"$oldTemplate\";", true)
+        }
+        if (executeSql(masterUrl, dbUser, dbPassword, "create database \"$templateName\" with template=\"$dbName\";", true)) {
+            project.logger.warn("[CubaDbCreation] Saved PostgreSQL database '$dbName' as template '$templateName'")
+        } else {
+            project.logger.warn("[CubaDbCreation] Failed to create PostgreSQL template '$templateName', " +
+                    "the database will be created by scripts next time")
+        }
+    }
+
+    /**
+     * @return names of databases starting with the prefix
+     */
+    protected List<String> getPostgresDatabases(String prefix) {
+        GroovyClass.forName(driver)
+        def conn = ConnectionPools.getConnection(project, driver, masterUrl, dbUser, dbPassword)
+        try {
+            def statement = conn.prepareStatement('select datname from pg_database where datname like ?')
+            try {
+                statement.setString(1, prefix.replace('_', '\\_') + '%')
+                def resultSet = statement.executeQuery()
+                List<String> names = []
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1))
+                }
+                return names
+            } finally {
+                statement.close()
+            }
+        } finally {
+            conn.close()
+        }
+    }
+
+    protected void waitForPortRelease(int port) {
+        long deadline = System.currentTimeMillis() + 10000
+        while (CubaHsqlTask.isPortInUse(port)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new GradleException("[CubaDbCreation] HSQL server on port $port is not stopped in 10 seconds")
+            }
+            Thread.sleep(50)
+        }
+    }
+
     @Override
     protected void initAppHomeDir() {
         setAppHomeDir(project.cuba.appHome)
@@ -105,7 +311,7 @@ class CubaDbCreation extends AbstractCubaDbCreation {
         def statement = null
 
         try {
-            conn = DriverManager.getConnection(url, user, password)
+            conn = ConnectionPools.getConnection(project, driver, url, user, password)
             statement = conn.createStatement()
 
             ScriptSplitter splitter = new ScriptSplitter(delimiter)
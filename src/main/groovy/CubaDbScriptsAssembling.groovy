@@ -15,14 +15,35 @@
  *
  */
 
+import com.haulmont.gradle.utils.DirectorySync
+import com.haulmont.gradle.utils.HashUtils
 import org.gradle.api.DefaultTask
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileVisitDetails
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.TaskAction
 
+/**
+ * Gathers database scripts from {@code dbscripts} artifacts and the {@code db} folder of the module into
+ * {@code build/db}.
+ * <p>
+ * Each artifact is extracted once into a temporary directory named by the hash of the archive, so unchanged
+ * archives are not extracted again. The output directory is synchronized by content: unchanged scripts are not
+ * rewritten and scripts that no longer exist are removed.
+ */
+@CacheableTask
 class CubaDbScriptsAssembling extends DefaultTask {
+
+    @Input
+    @Optional
     String moduleAlias
 
     CubaDbScriptsAssembling() {
@@ -36,54 +57,125 @@ class CubaDbScriptsAssembling extends DefaultTask {
     }
 
     @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
     FileCollection getSourceFiles() {
         return project.fileTree(new File(project.projectDir, 'db'), {
             exclude '*.*'
         })
     }
 
+    /**
+     * Archives of the {@code dbscripts} configuration. The order matters, scripts of later archives replace
+     * scripts with the same path from earlier ones.
+     */
+    @Classpath
+    FileCollection getDbScriptsArtifacts() {
+        Configuration dbscripts = project.configurations.findByName('dbscripts')
+        return dbscripts ?: project.files()
+    }
+
+    /**
+     * The name of the module folder is derived from the root project name when {@link #moduleAlias} is not set.
+     */
+    @Input
+    String getRootProjectName() {
+        return project.rootProject.name
+    }
+
     @TaskAction
     void assemble() {
         Configuration dbscripts = project.configurations.findByName('dbscripts')
         if (dbscripts) {
             project.logger.info "[CubaDbScriptsAssembling] project '$project.name' has dbscripts"
-            def dir = new File("${project.buildDir}/db")
-            if (dir.exists()) {
-                project.logger.info "[CubaDbScriptsAssembling] delete $dir.absolutePath"
-                project.delete(dir)
-            }
-            dir.mkdir()
+            def dir = getOutputDirectory()
 
+            // relative path -> source file, later sources replace earlier ones
+            Map<String, File> files = new LinkedHashMap<>()
+            List<File> extractedDirs = []
             dbscripts.resolvedConfiguration.resolvedArtifacts.each { artifact ->
-                project.logger.info "[CubaDbScriptsAssembling] copy db from: $artifact.file.absolutePath"
-                project.copy {
-                    from project.zipTree(artifact.file.absolutePath)
-                    into dir
-                }
+                File extractedDir = extractArtifact(artifact.file)
+                extractedDirs.add(extractedDir)
+                collectFiles(extractedDir, files)
             }
+            deleteStaleArtifacts(extractedDirs)
 
             def srcDbDir = new File(project.projectDir, 'db')
             project.logger.info "[CubaDbScriptsAssembling] srcDbDir: $srcDbDir.absolutePath"
-            if (srcDbDir.exists() && dir.exists()) {
+            if (srcDbDir.exists()) {
                 def moduleDirName = moduleAlias
                 if (!moduleDirName) {
-                    def moduleNames = Arrays.asList(dir.list()).sort { a, b ->
-                        a.substring(0, a.indexOf("-")).toInteger() - b.substring(0, b.indexOf("-")).toInteger()
-                    }
+                    def moduleNames = files.keySet()
+                            .findAll { it.contains('/') }
+                            .collect { it.substring(0, it.indexOf('/')) }
+                            .unique()
+                            .sort { a, b ->
+                                a.substring(0, a.indexOf("-")).toInteger() - b.substring(0, b.indexOf("-")).toInteger()
+                            }
                     if (!moduleNames.empty) {
                         def lastName = moduleNames.last()
                         def num = lastName.substring(0, lastName.indexOf("-")).toInteger()
-                        moduleDirName = "${Math.max(50, num + 10)}-${project.rootProject.name}"
+                        moduleDirName = "${Math.max(50, num + 10)}-${rootProjectName}"
                     }
                 }
                 if (moduleDirName) {
-                    project.copy {
-                        project.logger.info "[CubaDbScriptsAssembling] copy db from: $srcDbDir.absolutePath"
-                        from srcDbDir
-                        into "${project.buildDir}/db/${moduleDirName}"
+                    project.logger.info "[CubaDbScriptsAssembling] copy db from: $srcDbDir.absolutePath"
+                    Map<String, File> moduleFiles = new LinkedHashMap<>()
+                    collectFiles(srcDbDir, moduleFiles)
+                    moduleFiles.each { String path, File file ->
+                        files.put("$moduleDirName/$path".toString(), file)
                     }
                 }
             }
+
+            def sync = new DirectorySync()
+            sync.sync(files, dir)
+            project.logger.info("[CubaDbScriptsAssembling] ${files.size()} scripts, " +
+                    "${sync.copiedFiles} copied, ${sync.deletedFiles} deleted")
+        }
+    }
+
+    /**
+     * Extracts the archive unless it has been extracted by a previous build.
+     *
+     * @return directory containing the archive content
+     */
+    protected File extractArtifact(File archive) {
+        File extractedDir = new File(getArtifactsDir(), HashUtils.sha1(archive))
+        if (extractedDir.exists()) {
+            project.logger.info "[CubaDbScriptsAssembling] $archive.name is not changed"
+            return extractedDir
+        }
+
+        project.logger.info "[CubaDbScriptsAssembling] copy db from: $archive.absolutePath"
+        File tempDir = new File(getArtifactsDir(), "${extractedDir.name}.tmp")
+        project.delete(tempDir)
+        project.copy {
+            from project.zipTree(archive.absolutePath)
+            into tempDir
+        }
+        if (!tempDir.renameTo(extractedDir)) {
+            throw new IOException("Unable to rename $tempDir to $extractedDir")
+        }
+        return extractedDir
+    }
+
+    protected void deleteStaleArtifacts(List<File> extractedDirs) {
+        getArtifactsDir().listFiles()?.each { File file ->
+            if (!extractedDirs.contains(file)) {
+                project.delete(file)
+            }
+        }
+    }
+
+    protected File getArtifactsDir() {
+        return new File(temporaryDir, 'artifacts')
+    }
+
+    protected void collectFiles(File dir, Map<String, File> files) {
+        project.fileTree(dir).visit { FileVisitDetails details ->
+            if (!details.directory) {
+                files.put(details.relativePath.pathString, details.file)
+            }
         }
     }
-}
\ No newline at end of file
+}
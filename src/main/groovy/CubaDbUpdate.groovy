@@ -15,22 +15,25 @@
  *
  */
 
+import com.haulmont.gradle.task.db.ConnectionPools
+import com.haulmont.gradle.task.db.CsvDataLoader
 import com.haulmont.gradle.task.db.CubaDbTask
-import groovy.sql.Sql
-import org.apache.commons.dbcp2.BasicDataSource
-import org.apache.commons.io.FileUtils
+import com.haulmont.gradle.task.db.ExecutedScripts
+import com.haulmont.gradle.task.db.ScriptDataSource
+import com.haulmont.gradle.task.db.UpgradeScriptCache
+import com.haulmont.gradle.utils.HashUtils
 import org.apache.commons.lang3.StringUtils
-import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.runtime.InvokerHelper
 import org.gradle.api.tasks.TaskAction
 import org.slf4j.LoggerFactory
 
-import java.nio.charset.StandardCharsets
+import java.nio.file.Path
 import java.sql.Connection
 import java.sql.DatabaseMetaData
+import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.sql.SQLException
-import java.util.logging.Level
-import java.util.logging.Logger
+import java.sql.Statement
 import java.util.regex.Pattern
 import java.util.stream.Collectors
 
@@ -42,8 +45,33 @@ class CubaDbUpdate extends CubaDbTask {
 
     protected static final Pattern[] EXCLUDED_ADDONS = [RESTAPI_REGEX]
 
+    protected static final String FINGERPRINT_PREFIX = '#fingerprint:'
+
+    protected static final String DURATION_COLUMN = 'EXEC_DURATION_MS'
+
     boolean executeGroovy = true
 
+    /**
+     * If enabled, a fingerprint of the script set is stored in SYS_DB_CHANGELOG after a successful update, and the
+     * next update with the same scripts finishes after checking the fingerprint. The fingerprint is stored as a
+     * synthetic row named {@code #fingerprint:<hash>:<number of other rows>}, so deleting a row of an executed
+     * script to run it again makes the next update execute the scripts.
+     */
+    boolean fingerprintEnabled = false
+
+    /**
+     * If enabled, execution time of each update script is stored in the EXEC_DURATION_MS column of
+     * SYS_DB_CHANGELOG, the column is added if it does not exist.
+     */
+    boolean storeScriptDurations = false
+
+    /**
+     * Maximum size of compiled upgrade scripts kept in the Gradle user home, see {@link UpgradeScriptCache}.
+     */
+    long upgradeScriptCacheMaxSizeMb = 64
+
+    protected UpgradeScriptCache upgradeScriptCache
+
     CubaDbUpdate() {
         setGroup('Database')
     }
@@ -53,35 +81,119 @@ class CubaDbUpdate extends CubaDbTask {
         init()
 
         try {
-            runRequiredInitScripts()
+            ScriptFinder scriptFinder = createScriptFinder(executeGroovy ? ['sql', 'csv', 'tsv', 'upgrade.groovy'] : ['sql', 'csv', 'tsv'])
+            List<Path> files = scriptFinder.getUpdateScriptPaths(null)
+
+            String fingerprint = fingerprintEnabled ? calculateFingerprint(files) : null
+            if (fingerprint && fingerprintMatches(fingerprint)) {
+                project.logger.warn(logPrefix + "Database is up to date, scripts have not been changed since the last update")
+                return
+            }
 
-            ScriptFinder scriptFinder = new ScriptFinder(storeName,
-                    dbms, dbmsVersion, dbDir, executeGroovy ? ['sql', 'upgrade.groovy'] : ['sql'], project)
-            List<File> files = scriptFinder.getUpdateScripts(null)
+            runRequiredInitScripts()
 
-            List<String> scripts = getExecutedScripts()
-            def toExecute = files.findAll { File file ->
-                String name = getScriptName(file)
-                !containsIgnoringPrefix(scripts, name)
+            ExecutedScripts executedScripts = new ExecutedScripts(getExecutedScripts())
+            def toExecute = files.findAll { Path file ->
+                !executedScripts.contains(getScriptName(file))
             }
 
             if (project.logger.isInfoEnabled()) {
-                project.logger.info("Updates: \n" + toExecute.collect { "\t" + it.getAbsolutePath() }.join("\n"))
+                project.logger.info(logPrefix + "Updates: \n" + toExecute.collect { "\t" + getScriptLocation(it) }.join("\n"))
+            }
+
+            List<String> newScripts = []
+            List<String> unmarkedScripts = []
+            Throwable failure = null
+            try {
+                toExecute.each { Path file ->
+                    executeScript(file)
+                    String name = getScriptName(file)
+                    newScripts.add(name)
+                    unmarkedScripts.add(name)
+                    // bounds the number of executed scripts left unmarked if the build is killed
+                    if (unmarkedScripts.size() >= MARK_SCRIPTS_FLUSH_SIZE) {
+                        markScripts(unmarkedScripts, false)
+                        unmarkedScripts.clear()
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e
+                throw e
+            } finally {
+                // scripts executed before a failure are still marked
+                markScripts(unmarkedScripts, false, failure)
+                if (storeScriptDurations) {
+                    storeScriptDurations(newScripts)
+                }
             }
 
-            toExecute.each { File file ->
-                executeScript(file)
-                String name = getScriptName(file)
-                markScript(name, false)
+            if (fingerprint) {
+                storeFingerprint(fingerprint)
             }
         } finally {
+            writeExecutionReport()
+            closeUpgradeScriptCache()
+            closeScriptIndex()
             closeSql()
         }
     }
 
+    /**
+     * Calculates a fingerprint of the scripts that can be executed by the task: names of update and init scripts
+     * and parameters affecting their selection.
+     */
+    protected String calculateFingerprint(List<Path> updateScripts) {
+        def sb = new StringBuilder()
+        sb.append("$storeName $dbms $dbmsVersion $executeGroovy\n")
+
+        updateScripts.each { sb.append(getScriptName(it)).append('\n') }
+
+        ScriptFinder initScriptFinder = createScriptFinder(INIT_SCRIPT_EXTENSIONS)
+        initScriptFinder.getModuleDirs().each { String dirName ->
+            initScriptFinder.getInitScriptPaths(dirName).each { sb.append(getScriptName(it)).append('\n') }
+        }
+
+        return HashUtils.sha1(sb.toString())
+    }
+
+    /**
+     * Checks the fingerprint and the number of changelog rows stored with it in a single query.
+     */
+    protected boolean fingerprintMatches(String fingerprint) {
+        // a plain statement, as the changelog table may not exist yet and groovy Sql would log the failure
+        String query = 'select max(case when SCRIPT_NAME like ? then SCRIPT_NAME end), ' +
+                'sum(case when SCRIPT_NAME like ? then 0 else 1 end) from SYS_DB_CHANGELOG'
+        try {
+            getSql().connection.prepareStatement(query).withCloseable { PreparedStatement statement ->
+                statement.setString(1, FINGERPRINT_PREFIX + '%')
+                statement.setString(2, FINGERPRINT_PREFIX + '%')
+                statement.executeQuery().withCloseable { ResultSet rs ->
+                    rs.next()
+                    return rs.getString(1) == getFingerprintRowName(fingerprint, rs.getLong(2))
+                }
+            }
+        } catch (SQLException e) {
+            project.logger.info("[CubaDbUpdate] Unable to check scripts fingerprint: $e")
+            closeSql()
+            return false
+        }
+    }
+
+    protected void storeFingerprint(String fingerprint) {
+        def sql = getSql()
+        sql.executeUpdate('delete from SYS_DB_CHANGELOG where SCRIPT_NAME like ?', [FINGERPRINT_PREFIX + '%'])
+        def row = sql.firstRow('select count(*) from SYS_DB_CHANGELOG')
+        sql.executeUpdate('insert into SYS_DB_CHANGELOG (SCRIPT_NAME, IS_INIT) values (?, ?)',
+                [getFingerprintRowName(fingerprint, row[0] as long), 0])
+    }
+
+    protected String getFingerprintRowName(String fingerprint, long scriptRows) {
+        return FINGERPRINT_PREFIX + fingerprint + ':' + scriptRows
+    }
+
     protected void runRequiredInitScripts() {
         if (!tableExists('SYS_DB_CHANGELOG')) {
-            project.logger.warn("Table SYS_DB_CHANGELOG does not exist, running all init scripts")
+            project.logger.warn(logPrefix + "Table SYS_DB_CHANGELOG does not exist, running all init scripts")
             try {
                 def pkLength = dbms == 'mysql' ? 190 : 300
                 getSql().executeUpdate("create table SYS_DB_CHANGELOG (" +
@@ -96,8 +208,8 @@ class CubaDbUpdate extends CubaDbTask {
             return
         }
 
-        List<String> executedScripts = getExecutedScripts()
-        ScriptFinder scriptFinder = new ScriptFinder(storeName, dbms, dbmsVersion, dbDir, ['sql'], project)
+        ExecutedScripts executedScripts = new ExecutedScripts(getExecutedScripts())
+        ScriptFinder scriptFinder = createScriptFinder(INIT_SCRIPT_EXTENSIONS)
         def dirs = scriptFinder.getModuleDirs()
         if (dirs.size() > 1) {
             def lastDir = dirs[dirs.size() - 1]
@@ -111,21 +223,20 @@ class CubaDbUpdate extends CubaDbTask {
             dirs.each { String dirName ->
                 def anInitScriptHasBeenExecuted = false
 
-                List<File> initScripts = scriptFinder.getInitScripts(dirName)
+                List<Path> initScripts = scriptFinder.getInitScriptPaths(dirName)
                         .stream()
                         .filter({ script -> filterInitScript(script) })
                         .collect(Collectors.toList())
 
                 if (!initScripts.isEmpty()) {
-                    for (File file : initScripts) {
-                        String script = getScriptName(file)
-                        if (containsIgnoringPrefix(executedScripts, script)) {
+                    for (Path file : initScripts) {
+                        if (executedScripts.contains(getScriptName(file))) {
                             anInitScriptHasBeenExecuted = true
                             break
                         }
                     }
                     if (!anInitScriptHasBeenExecuted && !initializedByOwnScript(executedScripts, dirName)) {
-                        project.logger.warn("No init scripts from $dirName have been executed, running init scripts")
+                        project.logger.warn(logPrefix + "No init scripts from $dirName have been executed, running init scripts")
                         initDatabase(dirName)
                     }
                 }
@@ -138,21 +249,15 @@ class CubaDbUpdate extends CubaDbTask {
         setAppHomeDir(project.cuba.appHome);
     }
 
-    protected boolean filterInitScript(File script) {
+    protected boolean filterInitScript(Path script) {
         return Arrays.stream(EXCLUDED_ADDONS)
                 .noneMatch({ pattern ->
                     pattern.matcher(getScriptName(script)).matches()
                 })
     }
 
-    protected boolean initializedByOwnScript(List<String> executedScripts, String dirName) {
-        executedScripts.find {
-            it.substring(it.lastIndexOf('/') + 1).equalsIgnoreCase("01.${dirName.substring(3)}-create-db.sql")
-        }
-    }
-
-    protected boolean containsIgnoringPrefix(List<String> strings, String s) {
-        strings.find { it -> it.length() > 3 && s.length() > 3 && it.substring(3) == s.substring(3) }
+    protected boolean initializedByOwnScript(ExecutedScripts executedScripts, String dirName) {
+        return executedScripts.containsFileName("01.${dirName.substring(3)}-create-db.sql")
     }
 
     protected boolean tableExists(String tableName) {
@@ -164,14 +269,7 @@ class CubaDbUpdate extends CubaDbTask {
             }
         }
         try {
-            def sqlLogger = Logger.getLogger(Sql.class.getName())
-            def saveLevel = sqlLogger.level
-            try {
-                sqlLogger.level = Level.SEVERE // suppress confusing error output
-                getSql().rows("select * from $tableName where 0=1".toString())
-            } finally {
-                sqlLogger.level = saveLevel
-            }
+            executeProbeQuery("select * from $tableName where 0=1".toString())
             return true
         } catch (SQLException e) {
             String mark = dbms == 'oracle' ? 'ora-00942' : tableName.toLowerCase()
@@ -183,6 +281,16 @@ class CubaDbUpdate extends CubaDbTask {
         }
     }
 
+    /**
+     * Executes a query that fails if a table or a column does not exist. Unlike groovy Sql, a plain statement does
+     * not log the failure, so the global level of the Sql logger is not changed while stores are updated concurrently.
+     */
+    protected void executeProbeQuery(String query) throws SQLException {
+        getSql().connection.createStatement().withCloseable { Statement statement ->
+            statement.executeQuery(query).close()
+        }
+    }
+
     protected boolean tableExistsInSchema(String tableName, String schemaName) {
         Connection connection = getSql().getConnection()
         DatabaseMetaData dbMetaData = connection.getMetaData()
@@ -197,55 +305,109 @@ class CubaDbUpdate extends CubaDbTask {
         return false
     }
 
-    protected void executeScript(File file) {
-        project.logger.warn("Executing script " + file.getPath())
-        if (file.name.endsWith('.sql')) {
+    protected void executeScript(Path file) {
+        project.logger.warn(logPrefix + "Executing script " + getScriptLocation(file))
+        if (file.fileName.toString().endsWith('.sql')) {
             executeSqlScript(file)
-        } else if (file.name.endsWith(".upgrade.groovy")) {
+        } else if (CsvDataLoader.isDataScript(file)) {
+            executeDataScript(file)
+        } else if (file.fileName.toString().endsWith(".upgrade.groovy")) {
             if (!executeGroovy) {
-                project.logger.warn("Skip execution of groovy script " + file.getPath())
+                project.logger.warn(logPrefix + "Skip execution of groovy script " + getScriptLocation(file))
             } else {
                 executeGroovyScript(file)
             }
         }
     }
 
-    protected void executeGroovyScript(File file) {
-        def dataSource = null
+    protected void executeGroovyScript(Path file) {
+        // statements executed by the script through the data source are not measured separately
+        startScriptTiming(file, 'groovy')
+        boolean failed = true
+        def dataSource = new ScriptDataSource(file.fileName.toString(), {
+            ConnectionPools.getConnection(project, driver, dbUrl, dbUser, dbPassword)
+        } as ScriptDataSource.ConnectionSource)
         try {
-            dataSource = new BasicDataSource()
-            dataSource.setUrl(dbUrl)
-            dataSource.setUsername(dbUser)
-            dataSource.setPassword(dbPassword)
-            dataSource.setDriverClassName(driver)
-            dataSource.setDriverClassLoader(GroovyObject.class.classLoader)
-            dataSource.setMaxTotal(5)
-
-            def cc = new CompilerConfiguration()
-            cc.setRecompileGroovySource(true)
-
             def bind = new Binding()
             bind.setProperty("ds", dataSource)
-            bind.setProperty("log", LoggerFactory.getLogger(file.getName()))
+            bind.setProperty("log", LoggerFactory.getLogger(file.fileName.toString()))
 
-            def shell = new GroovyShell(getClass().getClassLoader(), bind, cc)
-            def content = FileUtils.readFileToString(file, StandardCharsets.UTF_8)
-            def script = shell.parse(content)
+            def scriptClass = getUpgradeScriptCache().getScriptClass(file)
+            def script = InvokerHelper.createScript(scriptClass, bind)
             script.run()
+            failed = false
         } catch (Exception e) {
             throw new RuntimeException(e)
         } finally {
-            if (dataSource != null) {
-                try {
-                    dataSource.close()
-                } catch (Exception e) {
-                    //Do nothing
-                }
+            dataSource.close()
+            finishScriptTiming(failed)
+        }
+    }
+
+    protected UpgradeScriptCache getUpgradeScriptCache() {
+        if (upgradeScriptCache == null) {
+            def cacheDir = new File(project.gradle.gradleUserHomeDir, 'caches/cuba-plugin/upgrade-scripts')
+            upgradeScriptCache = new UpgradeScriptCache(cacheDir, getClass().getClassLoader(), getPluginVersion())
+        }
+        return upgradeScriptCache
+    }
+
+    /**
+     * Identifies the plugin build, so that scripts compiled against another build of the plugin are not reused.
+     */
+    protected String getPluginVersion() {
+        def location = CubaDbUpdate.protectionDomain.codeSource?.location
+        if (location?.protocol == 'file') {
+            def file = new File(location.toURI())
+            if (file.isFile()) {
+                return "${file.name}:${file.length()}:${file.lastModified()}"
             }
         }
+        // plugin classes are not in a jar, e.g. in buildSrc or an included build
+        def classBytes = CubaDbUpdate.getResourceAsStream("${CubaDbUpdate.simpleName}.class")?.withStream { it.bytes }
+        return classBytes != null ? HashUtils.sha1(classBytes) : 'unknown'
+    }
+
+    protected void closeUpgradeScriptCache() {
+        if (upgradeScriptCache != null) {
+            upgradeScriptCache.close()
+            upgradeScriptCache.evict(upgradeScriptCacheMaxSizeMb * 1024 * 1024)
+            upgradeScriptCache = null
+        }
+    }
+
+    protected void storeScriptDurations(List<String> scriptNames) {
+        Map<String, Long> durations = executionReport.scripts.collectEntries { [(it.name): it.durationMillis] }
+        def scriptDurations = scriptNames.findAll { durations.containsKey(it) }
+        if (scriptDurations.isEmpty()) {
+            return
+        }
+        try {
+            addDurationColumn()
+            getSql().withBatch(MARK_SCRIPTS_BATCH_SIZE,
+                    "update SYS_DB_CHANGELOG set $DURATION_COLUMN = ? where SCRIPT_NAME = ?".toString()) { ps ->
+                scriptDurations.each { ps.addBatch([durations[it], it]) }
+            }
+        } catch (SQLException e) {
+            project.logger.warn(logPrefix + "Unable to store script durations in SYS_DB_CHANGELOG: $e")
+        }
+    }
+
+    protected void addDurationColumn() {
+        try {
+            // the column may not exist yet
+            executeProbeQuery("select $DURATION_COLUMN from SYS_DB_CHANGELOG where 0=1".toString())
+            return
+        } catch (SQLException ignored) {
+        }
+        project.logger.info("[CubaDbUpdate] Adding $DURATION_COLUMN column to SYS_DB_CHANGELOG")
+        def columnType = dbms == ORACLE_DBMS ? 'number(19)' : 'bigint'
+        getSql().execute("alter table SYS_DB_CHANGELOG add $DURATION_COLUMN $columnType".toString())
     }
 
     protected List<String> getExecutedScripts() {
-        return getSql().rows('select SCRIPT_NAME from SYS_DB_CHANGELOG').collect { row -> row.script_name }
+        return getSql().rows('select SCRIPT_NAME from SYS_DB_CHANGELOG')
+                .collect { row -> row.script_name as String }
+                .findAll { !it.startsWith(FINGERPRINT_PREFIX) }
     }
 }
\ No newline at end of file
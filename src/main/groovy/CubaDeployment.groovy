@@ -16,7 +16,9 @@
  */
 
 import com.haulmont.gradle.dependency.DependencyResolver
+import com.haulmont.gradle.utils.DirectorySync
 import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileVisitDetails
 import org.gradle.api.tasks.TaskAction
 
 import static com.haulmont.gradle.dependency.DependencyResolver.getLibraryDefinition
@@ -153,17 +155,17 @@ class CubaDeployment extends DefaultTask {
         if (project.configurations.getAsMap().dbscripts) {
             project.logger.info("[CubaDeployment] copying dbscripts from ${project.buildDir}/db to ${tomcatRootDir}/webapps/$appName/WEB-INF/db")
 
-            // remove scripts that do not exist in project
+            // copy changed scripts only and remove scripts that do not exist in project
             def dbScriptsDir = project.file("${tomcatRootDir}/webapps/$appName/WEB-INF/db")
-            if (dbScriptsDir.exists()) {
-                dbScriptsDir.deleteDir()
-            }
-
-            project.copy {
-                from "${project.buildDir}/db"
-                into dbScriptsDir
-                excludes = dbScriptsExcludes
+            Map<String, File> dbScripts = new LinkedHashMap<>()
+            project.fileTree("${project.buildDir}/db") {
+                exclude dbScriptsExcludes
+            }.visit { FileVisitDetails details ->
+                if (!details.directory) {
+                    dbScripts.put(details.relativePath.pathString, details.file)
+                }
             }
+            new DirectorySync().sync(dbScripts, dbScriptsDir)
         }
 
         if (project.configurations.getAsMap().webcontent) {
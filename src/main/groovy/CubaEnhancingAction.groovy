@@ -16,7 +16,12 @@
 
 
 import com.haulmont.gradle.enhance.CubaEnhancer
+import com.haulmont.gradle.enhance.EnhancingStatistics
+import com.haulmont.gradle.enhance.PersistenceDescriptorIndex
+import com.haulmont.gradle.enhance.PersistenceDescriptorIndex.Descriptor
+import com.haulmont.gradle.utils.HashUtils
 import groovy.io.FileType
+import groovy.json.JsonOutput
 import groovy.xml.QName
 import groovy.xml.XmlUtil
 import javassist.ClassPool
@@ -30,6 +35,7 @@ import org.gradle.api.file.FileTree
 import org.gradle.api.plugins.JavaPlugin
 import org.gradle.api.tasks.SourceSet
 
+import java.nio.charset.StandardCharsets
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
@@ -53,6 +59,14 @@ class CubaEnhancingAction implements Action<Task> {
     protected final File customClassesDir
     protected boolean isSeparate;
 
+    /**
+     * Directory with compiled classes to enhance in place. If not set, classes are taken from
+     * {@code customClassesDir} or from the java output directory of the source set.
+     */
+    File classesDir
+
+    protected EnhancingStatistics statistics = new EnhancingStatistics()
+
     CubaEnhancingAction(Project project, String sourceSet, boolean separate = false) {
         this.project = project
 
@@ -73,12 +87,23 @@ class CubaEnhancingAction implements Action<Task> {
 
     @Override
     void execute(Task task) {
-        performAction()
+        performAction(task.name)
     }
 
-    protected void performAction() {
+    /**
+     * @param taskName name of the task performing the action, the action may be attached to several compile tasks
+     *                 of the source set
+     */
+    protected void performAction(String taskName) {
+        statistics = new EnhancingStatistics()
+
         def enhancedClasses = enhanceClasses()
+
+        long start = System.nanoTime()
         replaceClasses(enhancedClasses)
+        statistics.phaseFinished('replace', start)
+
+        writeStatistics(taskName)
     }
 
     protected List<String> enhanceClasses() {
@@ -89,12 +114,20 @@ class CubaEnhancingAction implements Action<Task> {
 
         project.logger.info('[CubaEnhancing] Entity classes directory: ' + javaOutputDir.absolutePath)
 
+        long start = System.nanoTime()
+        List<File> classesDirs = getClassesDirs()
+        File weavingSourceDir = prepareWeavingSourceDir(classesDirs)
+        statistics.phaseFinished('prepare', start)
+
         def ownMetadataXmlFiles = getOwnMetadataXmlFiles()
         project.logger.info("[CubaEnhancing] Metadata XML files: ${ownMetadataXmlFiles}")
 
+        start = System.nanoTime()
         File fullPersistenceXml = createFullPersistenceXml()
+        statistics.phaseFinished('persistenceXml', start)
 
-        if (javaOutputDir.exists()) {
+        start = System.nanoTime()
+        if (weavingSourceDir.exists()) {
             project.logger.info("[CubaEnhancing] Start EclipseLink enhancing")
 
             def javaPlugin = project.plugins.findPlugin(JavaPlugin.class)
@@ -107,13 +140,13 @@ class CubaEnhancingAction implements Action<Task> {
                     main = 'org.eclipse.persistence.tools.weaving.jpa.CubaStaticWeave'
                     classpath(
                             sourceSet.compileClasspath,
-                            javaOutputDir
+                            classesDirs
                     )
                     args "-loglevel"
                     args "INFO"
                     args "-persistenceinfo"
-                    args "$project.buildDir/tmp/persistence"
-                    args "$javaOutputDir"
+                    args persistenceDirPath
+                    args "$weavingSourceDir"
                     args enhancedDirPath
                     debug = System.getProperty("debugEnhance") ? Boolean.valueOf(System.getProperty("debugEnhance")) : false
                     errorOutput = new TeeOutputStream(errorOutput, errorClone)
@@ -138,7 +171,9 @@ class CubaEnhancingAction implements Action<Task> {
                 throw e;
             }
         }
+        statistics.phaseFinished('weaving', start)
 
+        start = System.nanoTime()
         // EclipseLink enhancer copies all classes to build/tmp/enhance-${classesRoot},
         // so we should delete files that are not in persistence.xml and metadata.xml
         def persistence = new XmlParser().parse(fullPersistenceXml)
@@ -150,14 +185,19 @@ class CubaEnhancingAction implements Action<Task> {
         allClasses.add(ABSTRACT_INSTANCE_FQN)
 
         if (enhancedDir.exists()) {
+            int wovenClasses = 0
             enhancedDir.eachFileRecurse(FileType.FILES) { File file ->
                 Path path = enhancedDir.toPath().relativize(file.toPath())
                 String name = path.findAll().join('.')
                 name = name.substring(0, name.lastIndexOf('.'))
                 if (!allClasses.contains(name)) {
                     file.delete()
+                    statistics.classDeleted()
+                } else if (file.name.endsWith('.class')) {
+                    wovenClasses++
                 }
             }
+            statistics.wovenClasses = wovenClasses
             // delete empty dirs
             List<File> emptyDirs = []
             enhancedDir.eachDirRecurse { File dir ->
@@ -171,7 +211,9 @@ class CubaEnhancingAction implements Action<Task> {
                 }
             }
         }
+        statistics.phaseFinished('cleanup', start)
 
+        start = System.nanoTime()
         if (enhancedDir.exists()) {
             // run CUBA enhancing on all classes remaining in build/tmp/enhance-${classesRoot}
             project.logger.info("[CubaEnhancing] Start CUBA enhancing")
@@ -183,49 +225,115 @@ class CubaEnhancingAction implements Action<Task> {
                 pool.insertClassPath(file.getAbsolutePath())
             }
 
-            pool.insertClassPath(javaOutputDir.getAbsolutePath())
+            for (dir in classesDirs) {
+                pool.insertClassPath(dir.getAbsolutePath())
+            }
             pool.insertClassPath(enhancedDir.getAbsolutePath())
 
             def cubaEnhancer = new CubaEnhancer(pool, enhancedDir.getAbsolutePath())
             cubaEnhancer.logger = project.logger
+            cubaEnhancer.statistics = statistics
 
             for (className in allClasses) {
                 def classFileName = className.replace('.', '/') + '.class'
-                def classFile = new File(javaOutputDir, classFileName)
 
-                if (classFile.exists()) {
-                    // skip files from dependencies, enhance only classes from `javaOutputDir`
+                if (classesDirs.any { new File(it, classFileName).exists() }) {
+                    // skip files from dependencies, enhance only classes from the module output directories
                     cubaEnhancer.run(className)
                 }
             }
         }
+        statistics.phaseFinished('cubaEnhancing', start)
 
         return allClasses
     }
 
     def replaceClasses(List<String> enhancedClassesFqn) {
-        def javaOutputDir = getEntityClassesDir()
+        List<File> classesDirs = getClassesDirs()
 
         enhancedClassesFqn.each { String classFqn ->
             def classPath = classFqn.replace('.', '/')
 
             Path srcFile = Paths.get("$enhancedDirPath/${classPath}.class")
-            Path dstFile = Paths.get("$javaOutputDir/${classPath}.class")
+            if (!srcFile.toFile().exists()) {
+                return
+            }
 
-            if (srcFile.toFile().exists() && dstFile.toFile().exists()) {
-                Files.copy(srcFile, dstFile, StandardCopyOption.REPLACE_EXISTING)
+            // the enhanced class is returned to the output directory it was compiled to
+            def dstDir = classesDirs.find { new File(it, "${classPath}.class").exists() }
+            if (dstDir) {
+                Files.copy(srcFile, Paths.get("$dstDir/${classPath}.class"), StandardCopyOption.REPLACE_EXISTING)
             }
         }
 
+        deleteTmpDir(enhancedDirPath)
+        deleteTmpDir(weavingSourceDirPath)
+    }
+
+    protected void deleteTmpDir(String path) {
         try {
-            FileUtils.deleteDirectory(new File(enhancedDirPath))
+            FileUtils.deleteDirectory(new File(path))
         } catch (IOException ignored) {
-            project.logger.debug("Unable to remove directory with enhanced classes: $enhancedDirPath")
+            project.logger.debug("Unable to remove temporary directory: $path")
         }
     }
 
+    protected void writeStatistics(String taskName) {
+        project.logger.info("[CubaEnhancing] Enhancing of '$classesRoot' classes by $taskName took ${statistics.totalMillis} ms: " +
+                "${statistics.wovenClasses} woven, ${statistics.deletedClasses} deleted, " +
+                "${statistics.enhancedClasses} enhanced, ${statistics.instrumentedSetters} setters instrumented")
+
+        def reportFile = new File("$project.buildDir/reports/enhancing/${classesRoot}-${taskName}.json")
+        reportFile.parentFile.mkdirs()
+        reportFile.write(JsonOutput.prettyPrint(JsonOutput.toJson(statistics.toMap())), StandardCharsets.UTF_8.name())
+    }
+
     private File getEntityClassesDir() {
-        return customClassesDir ?: sourceSet.java.outputDir
+        return classesDir ?: customClassesDir ?: sourceSet.java.outputDir
+    }
+
+    /**
+     * Returns output directories containing entity classes. In case of separate enhancing, classes compiled by
+     * other compilers of the source set (e.g. Kotlin classes placed to a custom directory) are enhanced
+     * together with java classes.
+     */
+    protected List<File> getClassesDirs() {
+        List<File> dirs = [getEntityClassesDir()]
+        if (isSeparate && !customClassesDir && !classesDir) {
+            for (language in ['kotlin', 'groovy']) {
+                def compileTask = project.tasks.findByName(sourceSet.getCompileTaskName(language))
+                if (compileTask && compileTask.hasProperty('destinationDir')) {
+                    File dir = compileTask.destinationDir
+                    if (dir && dir.exists() && !dirs.contains(dir)) {
+                        dirs.add(dir)
+                    }
+                }
+            }
+        }
+        return dirs
+    }
+
+    /**
+     * EclipseLink weaver accepts a single source directory, so if classes are located in several output
+     * directories they are gathered into a temporary one to weave all of them in one pass.
+     */
+    protected File prepareWeavingSourceDir(List<File> classesDirs) {
+        if (classesDirs.size() == 1) {
+            return classesDirs[0]
+        }
+
+        project.logger.info("[CubaEnhancing] Classes directories: $classesDirs")
+
+        def weavingSourceDir = new File(weavingSourceDirPath)
+        if (weavingSourceDir.exists()) {
+            FileUtils.deleteDirectory(weavingSourceDir)
+        }
+        classesDirs.each { File dir ->
+            if (dir.exists()) {
+                FileUtils.copyDirectory(dir, weavingSourceDir)
+            }
+        }
+        return weavingSourceDir
     }
 
     private List<File> getOwnPersistenceXmlFiles() {
@@ -252,46 +360,50 @@ class CubaEnhancingAction implements Action<Task> {
 
     private File createFullPersistenceXml() {
         def fileNames = persistenceConfig ? persistenceConfig.tokenize() : null
+        def patterns = fileNames ?: PersistenceDescriptorIndex.DEFAULT_PERSISTENCE_PATTERNS
 
-        def xmlFiles = []
+        List<Descriptor> descriptors = []
+
+        def descriptorIndex = new PersistenceDescriptorIndex(
+                new File(project.gradle.gradleUserHomeDir, 'caches/cuba-plugin/persistence-descriptors'),
+                new File("$project.buildDir/tmp/persistence/artifact-hashes.properties"),
+                project.logger)
 
         def compileConf = project.configurations.findByName('compile')
         compileConf.resolvedConfiguration.resolvedArtifacts.each { artifact ->
             if (artifact.file.name.endsWith('.jar')) {
-                def files = project.zipTree(artifact.file).matching {
-                    if (fileNames) {
-                        for (name in fileNames) {
-                            include "$name"
-                        }
-                    } else {
-                        include '**/*-persistence.xml'
-                        include '**/persistence.xml'
-                    }
-                }
-                files.each { xmlFiles.add(it) }
+                descriptors.addAll(descriptorIndex.getDescriptors(artifact.file, patterns).persistence)
             }
         }
+        descriptorIndex.save()
 
         def files = project.fileTree(srcRoot).matching {
-            if (fileNames) {
-                for (name in fileNames) {
-                    include "$name"
-                }
-            } else {
-                include '**/*-persistence.xml'
-                include '**/persistence.xml'
+            for (pattern in patterns) {
+                include "$pattern"
             }
         }
-        files.each { xmlFiles.add(it) }
+        files.each { File file ->
+            descriptors.add(PersistenceDescriptorIndex.readDescriptor(file, 'persistence-unit'))
+        }
+
+        project.logger.info("[CubaEnhancing] Persistence XML files: $descriptors")
+
+        // main and test enhancing build different files, so each source set keeps its own
+        def fullPersistenceXml = new File("$persistenceDirPath/META-INF/persistence.xml")
+        def fingerprintFile = new File("$persistenceDirPath/persistence.fingerprint")
 
-        project.logger.info("[CubaEnhancing] Persistence XML files: $xmlFiles")
+        def fingerprint = HashUtils.sha1(patterns.join(' ') + '\n' + descriptors.collect { it.hash }.join('\n'))
+        if (fullPersistenceXml.exists() && fingerprintFile.exists() && fingerprintFile.text == fingerprint) {
+            project.logger.info("[CubaEnhancing] Persistence XML files have not been changed, " +
+                    "using $fullPersistenceXml.absolutePath")
+            return fullPersistenceXml
+        }
 
         def parser = new XmlParser()
         Node doc = null
-        for (File file in xmlFiles) {
-            Node current = parser.parse(file)
+        for (Descriptor descriptor in descriptors) {
             if (doc == null) {
-                doc = current
+                doc = parser.parseText(descriptor.content)
             } else {
                 def docPu = doc.'persistence-unit'[0]
                 int idx = docPu.children().findLastIndexOf {
@@ -302,10 +414,9 @@ class CubaEnhancingAction implements Action<Task> {
                     idx = 0
                 }
 
-                def currentPu = current.'persistence-unit'[0]
-                currentPu.'class'.each {
+                descriptor.classes.each { String className ->
                     def classNode = parser.createNode(docPu, new QName('http://java.sun.com/xml/ns/persistence', 'class'), [:])
-                    classNode.value = it.value()[0]
+                    classNode.value = className
 
                     docPu.remove(classNode)
                     docPu.children().add(idx++, classNode)
@@ -316,9 +427,9 @@ class CubaEnhancingAction implements Action<Task> {
         def string = XmlUtil.serialize(doc)
         project.logger.debug('[CubaEnhancing] fullPersistenceXml:\n' + string)
 
-        def fullPersistenceXml = new File("$project.buildDir/tmp/persistence/META-INF/persistence.xml")
         fullPersistenceXml.parentFile.mkdirs()
         fullPersistenceXml.write(string)
+        fingerprintFile.write(fingerprint)
         return fullPersistenceXml
     }
 
@@ -364,4 +475,12 @@ class CubaEnhancingAction implements Action<Task> {
     private String getEnhancedDirPath() {
         return "${project.buildDir}/tmp/enhance-${classesRoot}"
     }
+
+    private String getWeavingSourceDirPath() {
+        return "${project.buildDir}/tmp/enhance-src-${classesRoot}"
+    }
+
+    private String getPersistenceDirPath() {
+        return "${project.buildDir}/tmp/persistence/${classesRoot}"
+    }
 }
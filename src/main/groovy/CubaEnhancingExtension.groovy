@@ -46,5 +46,6 @@ class CubaEnhancingExtension {
         String metadataPackageRegExp
         File customClassesDir
         Boolean separateEnhancingEnabled
+        boolean cacheableEnhancingEnabled
     }
 }
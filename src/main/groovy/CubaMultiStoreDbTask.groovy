@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.AbstractCubaDbCreation
+import com.haulmont.gradle.task.db.CubaDbTask
+import com.haulmont.gradle.task.db.Stores
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.tasks.TaskAction
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Runs database tasks of several data stores concurrently, each store on its own connection.
+ * <p>
+ * Tasks of the stores are configured as usual, e.g. {@code createDb_store2} or {@code updateDb_store2}, and
+ * passed to this task:
+ * <pre>
+ * task updateAllStores(type: CubaMultiStoreDbTask) {
+ *     stores updateDb, updateDb_store2, updateDb_store3
+ * }
+ * </pre>
+ * The store tasks are not executed by Gradle themselves, their actions are invoked by this task.
+ */
+class CubaMultiStoreDbTask extends DefaultTask {
+
+    List<CubaDbTask> storeTasks = []
+
+    /**
+     * Maximum number of stores processed at the same time, 0 means all stores.
+     */
+    int maxParallelStores = 0
+
+    CubaMultiStoreDbTask() {
+        setGroup('Database')
+        setDescription('Creates or updates databases of several data stores concurrently')
+    }
+
+    void stores(CubaDbTask... tasks) {
+        for (CubaDbTask storeTask : tasks) {
+            storeTasks.add(storeTask)
+            // e.g. assembleDbScripts
+            dependsOn(storeTask.taskDependencies)
+        }
+    }
+
+    @TaskAction
+    void run() {
+        if (storeTasks.isEmpty()) {
+            project.logger.warn("[CubaMultiStoreDbTask] No data store tasks are configured")
+            return
+        }
+
+        int threads = maxParallelStores > 0 ? Math.min(maxParallelStores, storeTasks.size()) : storeTasks.size()
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        try {
+            Map<CubaDbTask, Future> futures = new LinkedHashMap<>()
+            storeTasks.each { CubaDbTask storeTask ->
+                futures.put(storeTask, executor.submit({ runStoreTask(storeTask) } as Callable))
+            }
+
+            Map<CubaDbTask, Throwable> failures = new LinkedHashMap<>()
+            futures.each { CubaDbTask storeTask, Future future ->
+                try {
+                    future.get()
+                } catch (ExecutionException e) {
+                    failures.put(storeTask, e.cause)
+                }
+            }
+
+            if (!failures.isEmpty()) {
+                def message = new StringBuilder("Unable to process ${failures.size()} of ${storeTasks.size()} data stores:")
+                failures.each { CubaDbTask storeTask, Throwable error ->
+                    message.append("\n\t${storeName(storeTask)} (${storeTask.name}): ${error}")
+                }
+                def exception = new GradleException(message.toString(), failures.values().first())
+                failures.values().drop(1).each { exception.addSuppressed(it) }
+                throw exception
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    protected void runStoreTask(CubaDbTask storeTask) {
+        storeTask.logPrefix = "[${storeName(storeTask)}] "
+
+        long start = System.currentTimeMillis()
+        if (storeTask instanceof CubaDbUpdate) {
+            storeTask.updateDb()
+        } else if (storeTask instanceof AbstractCubaDbCreation) {
+            storeTask.createDb()
+        } else {
+            throw new GradleException("Unsupported data store task: ${storeTask.name}")
+        }
+        project.logger.warn("${storeTask.logPrefix}Finished in ${System.currentTimeMillis() - start} ms")
+    }
+
+    protected String storeName(CubaDbTask storeTask) {
+        return storeTask.storeName == Stores.MAIN ? 'main' : storeTask.storeName
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ConnectionPools
+import com.haulmont.gradle.task.db.TestDbForks
+import org.codehaus.groovy.tools.GroovyClass
+import org.gradle.api.GradleException
+import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.testing.Test
+import org.gradle.process.CommandLineArgumentProvider
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Creates a separate database for each forked test JVM.
+ * <p>
+ * The task is configured as {@link CubaDbCreation}. It creates the database {@code dbName} and then the fork
+ * databases {@code dbName_1} ... {@code dbName_N} concurrently:
+ * <pre>
+ * task createTestDbs(type: CubaParallelDbCreation) {
+ *     dbms = 'postgres'
+ *     dbName = 'app_test'
+ *     dbUser = 'cuba'
+ *     dbPassword = 'cuba'
+ *     forks = 8
+ *     exportTo test
+ * }
+ * </pre>
+ * In PostgreSQL the fork databases are copied from the created one with {@code create database ... template}.
+ * In MySQL and Microsoft SQL Server each fork database is created by the scripts, by a helper task
+ * {@code <name>Fork<i>} which is disabled, so that it is executed only by this task. Custom {@code dropDbSql} and
+ * {@code createDbSql} are applied to the fork databases with the database name replaced.
+ * <p>
+ * Test tasks passed to {@link #exportTo(Test)} receive the system properties {@code cuba.testDb.forks},
+ * {@code cuba.testDb.<i>.url} for i from 1 to N, {@code cuba.testDb.user}, {@code cuba.testDb.password} and
+ * {@code cuba.testDb.lockDir}. A test JVM leases the first database whose lock file it can lock and keeps the lock
+ * until it exits, see {@link TestDbForks}:
+ * <pre>
+ * static String leaseTestDbUrl() {
+ *     def lockDir = new File(System.getProperty('cuba.testDb.lockDir'))
+ *     for (int i = 1; i &lt;= Integer.getInteger('cuba.testDb.forks'); i++) {
+ *         def channel = FileChannel.open(new File(lockDir, "${i}.lock").toPath(), CREATE, WRITE)
+ *         if (channel.tryLock() != null) {
+ *             return System.getProperty("cuba.testDb.${i}.url") // the channel stays open
+ *         }
+ *         channel.close()
+ *     }
+ *     throw new IllegalStateException('All test databases are in use')
+ * }
+ * </pre>
+ * The lease must be taken once per JVM. {@code maxParallelForks} of the test tasks must not exceed {@code forks}.
+ */
+class CubaParallelDbCreation extends CubaDbCreation {
+
+    protected int forks = 1
+
+    protected List<String> forkUrls = []
+
+    CubaParallelDbCreation() {
+        setDescription('Creates a separate database for each forked test JVM')
+    }
+
+    int getForks() {
+        return forks
+    }
+
+    void setForks(int forks) {
+        this.forks = forks
+        for (int i = 1; i <= forks; i++) {
+            getForkTask(i)
+        }
+    }
+
+    /**
+     * Makes the test task depend on this task and pass the URLs of the fork databases to the test JVMs.
+     */
+    void exportTo(Test... testTasks) {
+        for (Test testTask : testTasks) {
+            testTask.dependsOn(this)
+            testTask.jvmArgumentProviders.add(new ForkDbArguments(this, testTask))
+        }
+    }
+
+    @TaskAction
+    @Override
+    void createDb() {
+        if (forks < 1) {
+            throw new GradleException("[CubaParallelDbCreation] forks must be positive: $forks")
+        }
+        forkUrls = []
+        // the SQL may be generated for the database name by the creation
+        def configuredDropDbSql = dropDbSql
+        def configuredCreateDbSql = createDbSql
+
+        super.createDb()
+
+        List<String> forkDbNames = TestDbForks.getForkDbNames(dbName, forks)
+        List<String> urls = forkDbNames.collect { TestDbForks.getForkUrl(dbUrl, dbName, it) }
+
+        long start = System.currentTimeMillis()
+        if (dbms == POSTGRES_DBMS) {
+            copyPostgresDatabases(dbName, forkDbNames)
+        } else if (dbms == MYSQL_DBMS || dbms == MSSQL_DBMS) {
+            createDatabasesByScripts(forkDbNames, urls, configuredDropDbSql, configuredCreateDbSql)
+        } else {
+            throw new GradleException("[CubaParallelDbCreation] DBMS '$dbms' is not supported, " +
+                    "fork databases can be created for postgres, mysql and mssql")
+        }
+        getLockDir().mkdirs()
+        forkUrls = urls
+        project.logger.warn("[CubaParallelDbCreation] Created $forks fork databases of '$dbName' " +
+                "in ${System.currentTimeMillis() - start} ms")
+    }
+
+    List<String> getForkUrls() {
+        return forkUrls
+    }
+
+    /**
+     * @return directory of the lock files leased by test JVMs
+     */
+    File getLockDir() {
+        return new File(project.buildDir, "tmp/$name/locks")
+    }
+
+    protected void copyPostgresDatabases(String baseDbName, List<String> forkDbNames) {
+        // a database can be used as a template only if nobody is connected to it
+        ConnectionPools.evict(dbUrl)
+        GroovyClass.forName(driver)
+
+        runConcurrently(forkDbNames.collect { String forkDbName ->
+            return {
+                if (!executeSql(masterUrl, dbUser, dbPassword, "drop database if exists \"$forkDbName\";", false)
+                        || !executeSql(masterUrl, dbUser, dbPassword,
+                        "create database \"$forkDbName\" with template=\"$baseDbName\";", false)) {
+                    throw new GradleException("[CubaParallelDbCreation] Failed to create database '$forkDbName'")
+                }
+            } as Callable
+        })
+    }
+
+    /**
+     * Creates the fork databases by the helper tasks, each task has its own connection and script state.
+     */
+    protected void createDatabasesByScripts(List<String> forkDbNames, List<String> urls,
+                                            def configuredDropDbSql, def configuredCreateDbSql) {
+        List<CubaDbCreation> forkTasks = []
+        forkDbNames.eachWithIndex { String forkDbName, int i ->
+            CubaDbCreation forkTask = getForkTask(i + 1)
+            configureForkTask(forkTask, forkDbName, urls[i])
+            forkTask.dropDbSql = configuredDropDbSql?.toString()?.replace(dbName, forkDbName)
+            forkTask.createDbSql = configuredCreateDbSql?.toString()?.replace(dbName, forkDbName)
+            forkTasks.add(forkTask)
+        }
+        runConcurrently(forkTasks.collect { CubaDbCreation forkTask ->
+            return { forkTask.createDb() } as Callable
+        })
+    }
+
+    protected void configureForkTask(CubaDbCreation forkTask, String forkDbName, String forkUrl) {
+        forkTask.storeName = storeName
+        forkTask.dbms = dbms
+        forkTask.dbmsVersion = dbmsVersion
+        forkTask.delimiter = delimiter
+        forkTask.host = host
+        forkTask.dbFolder = dbFolder
+        forkTask.connectionParams = connectionParams
+        forkTask.dbName = forkDbName
+        forkTask.dbUrl = forkUrl
+        forkTask.driver = driver
+        forkTask.dbUser = dbUser
+        forkTask.dbPassword = dbPassword
+        forkTask.driverClasspath = driverClasspath
+        forkTask.timeStampType = timeStampType
+        forkTask.dbScriptsArchives = dbScriptsArchives
+        forkTask.batchSize = batchSize
+        forkTask.scriptTransactionsEnabled = scriptTransactionsEnabled
+        forkTask.commitSize = commitSize
+        forkTask.appHomeDir = appHomeDir
+        forkTask.auxiliaryScript = auxiliaryScript
+        forkTask.slowestReportSize = slowestReportSize
+        forkTask.masterUrl = masterUrl
+        forkTask.logPrefix = "[$forkDbName] "
+    }
+
+    protected CubaDbCreation getForkTask(int fork) {
+        String forkTaskName = "${name}Fork${fork}"
+        CubaDbCreation forkTask = project.tasks.findByName(forkTaskName) as CubaDbCreation
+        if (forkTask == null) {
+            forkTask = project.tasks.create(forkTaskName, CubaDbCreation)
+            forkTask.description = "Creates fork database $fork of $path"
+            forkTask.group = null
+            forkTask.enabled = false
+        }
+        return forkTask
+    }
+
+    protected void runConcurrently(List<Callable> actions) {
+        ExecutorService executor = Executors.newFixedThreadPool(actions.size())
+        try {
+            List<Future> futures = actions.collect { executor.submit(it) }
+            List<Throwable> failures = []
+            futures.each { Future future ->
+                try {
+                    future.get()
+                } catch (ExecutionException e) {
+                    failures.add(e.cause)
+                }
+            }
+            if (!failures.isEmpty()) {
+                def exception = new GradleException("[CubaParallelDbCreation] Unable to create " +
+                        "${failures.size()} of ${actions.size()} fork databases", failures.first())
+                failures.drop(1).each { exception.addSuppressed(it) }
+                throw exception
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    protected static class ForkDbArguments implements CommandLineArgumentProvider {
+
+        protected final CubaParallelDbCreation task
+        protected final Test testTask
+
+        ForkDbArguments(CubaParallelDbCreation task, Test testTask) {
+            this.task = task
+            this.testTask = testTask
+        }
+
+        @Override
+        Iterable<String> asArguments() {
+            List<String> urls = task.forkUrls
+            if (urls.isEmpty()) {
+                throw new GradleException("[CubaParallelDbCreation] Fork databases of ${task.path} are not created")
+            }
+            if (testTask.maxParallelForks > urls.size()) {
+                throw new GradleException("[CubaParallelDbCreation] ${testTask.path} runs up to " +
+                        "${testTask.maxParallelForks} JVMs, but ${task.path} creates ${urls.size()} databases")
+            }
+            return TestDbForks.getJvmArguments(urls, task.dbUser, task.dbPassword, task.lockDir)
+        }
+    }
+}
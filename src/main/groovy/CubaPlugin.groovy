@@ -45,6 +45,7 @@ import org.gradle.api.plugins.ExtensionAware
 import org.gradle.api.plugins.GroovyPlugin
 import org.gradle.api.plugins.JavaPlugin
 import org.gradle.api.tasks.Exec
+import org.gradle.api.tasks.SourceSet
 import org.gradle.api.tasks.bundling.Zip
 import org.gradle.api.tasks.compile.GroovyCompile
 import org.gradle.api.tasks.compile.JavaCompile
@@ -203,6 +204,8 @@ class CubaPlugin implements Plugin<Project> {
     private void exportTaskTypes(Project project) {
         project.ext.CubaHsqlStop = CubaHsqlStop.class
         project.ext.CubaHsqlStart = CubaHsqlStart.class
+        project.ext.CubaMultiStoreDbTask = CubaMultiStoreDbTask.class
+        project.ext.CubaParallelDbCreation = CubaParallelDbCreation.class
 
         project.ext.CubaWidgetSetBuilding = CubaWidgetSetBuilding.class
         project.ext.CubaWidgetSetDebug = CubaWidgetSetDebug.class
@@ -428,6 +431,7 @@ class CubaPlugin implements Plugin<Project> {
         def deployNameTasks = subProject.tasks.matching({ it.name == DEPLOY_TASK_NAME })
         def dbCreationTasks = subProject.tasks.withType(CubaDbCreation.class)
         def dbUpdateTasks = subProject.tasks.withType(CubaDbUpdate.class)
+        def multiStoreDbTasks = subProject.tasks.withType(CubaMultiStoreDbTask.class)
         def hsqlStartTasks = subProject.tasks.withType(CubaHsqlStart.class)
 
         def rootProject = subProject.getRootProject()
@@ -441,6 +445,7 @@ class CubaPlugin implements Plugin<Project> {
             it.mustRunAfter deploymentTasks
             it.mustRunAfter dbCreationTasks
             it.mustRunAfter dbUpdateTasks
+            it.mustRunAfter multiStoreDbTasks
             it.mustRunAfter setupTomcatTasks
             it.mustRunAfter deployNameTasks
         }
@@ -449,6 +454,7 @@ class CubaPlugin implements Plugin<Project> {
             it.mustRunAfter deploymentTasks
             it.mustRunAfter dbCreationTasks
             it.mustRunAfter dbUpdateTasks
+            it.mustRunAfter multiStoreDbTasks
             it.mustRunAfter setupTomcatTasks
             it.mustRunAfter deployNameTasks
         }
@@ -468,6 +474,10 @@ class CubaPlugin implements Plugin<Project> {
         dbUpdateTasks.all {
             it.mustRunAfter hsqlStartTasks
         }
+
+        multiStoreDbTasks.all {
+            it.mustRunAfter hsqlStartTasks
+        }
     }
 
     private void setupEntitiesEnhancing(Project project) {
@@ -477,7 +487,9 @@ class CubaPlugin implements Plugin<Project> {
 
         def mainEnhancing = project.entitiesEnhancing.main
         if (mainEnhancing && mainEnhancing.enabled) {
-            if (mainEnhancing.separateEnhancingEnabled
+            if (mainEnhancing.cacheableEnhancingEnabled) {
+                setupCacheableEnhancing(project, 'main', 'enhanceClasses')
+            } else if (mainEnhancing.separateEnhancingEnabled
                     || (mainEnhancing.separateEnhancingEnabled == null && kotlinPlugin && javaPlugin)) {
                 project.task(
                         [type: CubaSeparateEnhancing],
@@ -505,7 +517,9 @@ class CubaPlugin implements Plugin<Project> {
 
         def testEnhancing = project.entitiesEnhancing.test
         if (testEnhancing && testEnhancing.enabled) {
-            if (testEnhancing.separateEnhancingEnabled
+            if (testEnhancing.cacheableEnhancingEnabled) {
+                setupCacheableEnhancing(project, 'test', 'enhanceTestClasses')
+            } else if (testEnhancing.separateEnhancingEnabled
                     || (testEnhancing.separateEnhancingEnabled == null && kotlinPlugin && javaPlugin)) {
                 project.task(
                         [type: CubaSeparateEnhancing],
@@ -531,6 +545,33 @@ class CubaPlugin implements Plugin<Project> {
         }
     }
 
+    /**
+     * Creates a task enhancing classes of the source set into a separate directory and makes the source set output
+     * point to enhanced classes, so that jars, tests and dependent modules use them.
+     */
+    protected void setupCacheableEnhancing(Project project, String sourceSetName, String taskName) {
+        SourceSet sourceSet = project.sourceSets.getByName(sourceSetName)
+
+        def compileTasks = ['java', 'kotlin', 'groovy']
+                .collect { project.tasks.findByName(sourceSet.getCompileTaskName(it)) }
+                .findAll { it != null }
+        def rawClassesDirs = project.files(sourceSet.output.classesDirs.files.toArray())
+        rawClassesDirs.builtBy(compileTasks)
+
+        def enhancingTask = project.task(
+                [type: CubaCacheableEnhancing],
+                taskName,
+                {
+                    it.sourceSetName = sourceSetName
+                    it.rawClassesDirs = rawClassesDirs
+                    it.outputDir = new File(project.buildDir, "enhanced-classes/$sourceSetName")
+                }
+        ) as CubaCacheableEnhancing
+
+        sourceSet.output.classesDirs.setFrom(project.files(enhancingTask.outputDir).builtBy(enhancingTask))
+        project.tasks.getByName(sourceSet.classesTaskName).dependsOn(enhancingTask)
+    }
+
     private void importBomFromDependencies(Project project, CubaPluginExtension cubaExtension) {
         def bomComponentConf = project.rootProject.configurations.findByName(BOM_CONFIGURATION_NAME)
         if (bomComponentConf == null) {
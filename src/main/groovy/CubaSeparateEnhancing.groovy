@@ -1,5 +1,5 @@
 import org.gradle.api.DefaultTask
-import org.gradle.api.plugins.JavaPlugin
+import org.gradle.api.tasks.SourceSet
 import org.gradle.api.tasks.TaskAction
 
 /*
@@ -30,26 +30,26 @@ class CubaSeparateEnhancing extends DefaultTask {
 
     String sourceSetName
 
-    CubaSeparateEnhancing() {
-        def javaPlugin = project.plugins.findPlugin(JavaPlugin.class)
-        def kotlinPlugin = project.plugins.findPlugin("org.jetbrains.kotlin.jvm")
-        if (javaPlugin) {
-            def compileTaskName = sourceSetName == 'test' ? 'compileTestJava' : 'compileJava'
-            def classesTaskName = sourceSetName == 'test' ? 'testClasses' : 'classes'
-            dependsOn(project.tasks.getByPath(compileTaskName))
-            project.tasks.getByPath(classesTaskName).dependsOn(this)
-        }
-        if (kotlinPlugin) {
-            def compileTaskName = sourceSetName == 'test' ? 'compileTestKotlin' : 'compileKotlin'
-            def classesTaskName = sourceSetName == 'test' ? 'testClasses' : 'classes'
-            dependsOn(project.tasks.getByPath(compileTaskName))
-            project.tasks.getByPath(classesTaskName).dependsOn(this)
+    /**
+     * Sets the source set of enhanced classes and makes the task run once after all compile tasks of the source set,
+     * so that java, kotlin and groovy classes are woven in a single pass.
+     */
+    void setSourceSetName(String sourceSetName) {
+        this.sourceSetName = sourceSetName
+
+        SourceSet sourceSet = project.sourceSets.getByName(sourceSetName)
+        for (language in ['java', 'kotlin', 'groovy']) {
+            def compileTask = project.tasks.findByName(sourceSet.getCompileTaskName(language))
+            if (compileTask) {
+                dependsOn(compileTask)
+            }
         }
+        project.tasks.getByName(sourceSet.classesTaskName).dependsOn(this)
     }
 
     @TaskAction
     def enhanceClasses() {
         def enhancingAction = new CubaEnhancingAction(project, sourceSetName, true)
-        enhancingAction.performAction()
+        enhancingAction.performAction(name)
     }
 }
@@ -46,6 +46,9 @@ public class CubaEnhancer {
     protected ClassPool pool;
     protected String outputDir;
 
+    protected EnhancingStatistics statistics;
+    protected int enhancedSetters;
+
     public CubaEnhancer(ClassPool pool, String outputDir) {
         this.pool = pool;
         this.outputDir = outputDir;
@@ -55,7 +58,12 @@ public class CubaEnhancer {
         this.log = log;
     }
 
+    public void setStatistics(EnhancingStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public void run(String className) {
+        long start = System.nanoTime();
         try {
             CtClass cc = pool.get(className);
 
@@ -65,6 +73,9 @@ public class CubaEnhancer {
             }
             if (superclass == null) {
                 log.info("[CubaEnhancer] " + className + " is not an AbstractInstance and should not be enhanced");
+                if (statistics != null) {
+                    statistics.classSkipped();
+                }
                 return;
             }
 
@@ -72,11 +83,15 @@ public class CubaEnhancer {
                 if (intf.getName().equals(ENHANCED_TYPE)
                         || intf.getName().equals(CubaEnhancer.ENHANCED_DISABLED_TYPE)) {
                     log.info("[CubaEnhancer] " + className + " has already been enhanced or should not be enhanced at all");
+                    if (statistics != null) {
+                        statistics.classSkipped();
+                    }
                     return;
                 }
             }
 
             log.info("[CubaEnhancer] enhancing " + className);
+            enhancedSetters = 0;
             enhanceSetters(cc);
 
             enhanceBeanValidationMessages(cc);
@@ -85,6 +100,10 @@ public class CubaEnhancer {
 
             cc.addInterface(pool.get(ENHANCED_TYPE));
             cc.writeFile(outputDir);
+
+            if (statistics != null) {
+                statistics.classEnhanced(className, System.nanoTime() - start, enhancedSetters);
+            }
         } catch (NotFoundException | IOException | CannotCompileException e) {
             throw new RuntimeException("Error enhancing class " + className + ": " + e, e);
         }
@@ -190,6 +209,7 @@ public class CubaEnhancer {
                             "  this.propertyChanged(\"" + fieldName + "\", __prev, __new);" +
                             "}"
             );
+            enhancedSetters++;
         }
     }
 
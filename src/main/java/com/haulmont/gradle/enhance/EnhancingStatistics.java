@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.enhance;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects timings and counters of entities enhancing.
+ */
+public class EnhancingStatistics {
+
+    protected static final int SLOWEST_CLASSES_LIMIT = 20;
+
+    protected final Map<String, Long> phaseTimes = new LinkedHashMap<>();
+
+    protected int wovenClasses;
+    protected int deletedClasses;
+    protected int enhancedClasses;
+    protected int skippedClasses;
+    protected int instrumentedSetters;
+
+    protected final PriorityQueue<ClassTiming> slowestClasses =
+            new PriorityQueue<>(Comparator.comparingLong(ClassTiming::getNanos));
+
+    /**
+     * Adds wall time of an enhancing phase.
+     *
+     * @param phase     phase name
+     * @param startNano value of {@link System#nanoTime()} at the beginning of the phase
+     */
+    public void phaseFinished(String phase, long startNano) {
+        phaseTimes.merge(phase, System.nanoTime() - startNano, Long::sum);
+    }
+
+    public void setWovenClasses(int wovenClasses) {
+        this.wovenClasses = wovenClasses;
+    }
+
+    public void classDeleted() {
+        deletedClasses++;
+    }
+
+    public void classSkipped() {
+        skippedClasses++;
+    }
+
+    public void classEnhanced(String className, long nanos, int setters) {
+        enhancedClasses++;
+        instrumentedSetters += setters;
+
+        slowestClasses.add(new ClassTiming(className, nanos, setters));
+        if (slowestClasses.size() > SLOWEST_CLASSES_LIMIT) {
+            slowestClasses.poll();
+        }
+    }
+
+    public int getWovenClasses() {
+        return wovenClasses;
+    }
+
+    public int getDeletedClasses() {
+        return deletedClasses;
+    }
+
+    public int getEnhancedClasses() {
+        return enhancedClasses;
+    }
+
+    public int getSkippedClasses() {
+        return skippedClasses;
+    }
+
+    public int getInstrumentedSetters() {
+        return instrumentedSetters;
+    }
+
+    public long getTotalMillis() {
+        long total = 0;
+        for (Long nanos : phaseTimes.values()) {
+            total += nanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    /**
+     * @return statistics as a map suitable for serialization to JSON
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : phaseTimes.entrySet()) {
+            phases.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+
+        List<ClassTiming> timings = new ArrayList<>(slowestClasses);
+        timings.sort(Comparator.comparingLong(ClassTiming::getNanos).reversed());
+
+        List<Map<String, Object>> classes = new ArrayList<>();
+        for (ClassTiming timing : timings) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", timing.getClassName());
+            item.put("timeMicros", TimeUnit.NANOSECONDS.toMicros(timing.getNanos()));
+            item.put("setters", timing.getSetters());
+            classes.add(item);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalTimeMillis", getTotalMillis());
+        result.put("phaseTimeMillis", phases);
+        result.put("wovenClasses", wovenClasses);
+        result.put("deletedClasses", deletedClasses);
+        result.put("enhancedClasses", enhancedClasses);
+        result.put("skippedClasses", skippedClasses);
+        result.put("instrumentedSetters", instrumentedSetters);
+        result.put("slowestClasses", classes);
+        return result;
+    }
+
+    protected static class ClassTiming {
+
+        protected final String className;
+        protected final long nanos;
+        protected final int setters;
+
+        public ClassTiming(String className, long nanos, int setters) {
+            this.className = className;
+            this.nanos = nanos;
+            this.setters = setters;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getSetters() {
+            return setters;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.enhance;
+
+import com.haulmont.gradle.utils.HashUtils;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.gradle.api.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent index of persistence descriptors packed into dependency jars.
+ * <p>
+ * A jar is scanned only once: found descriptors and their class lists are stored in the cache directory
+ * under the SHA-1 of the jar content. Hashes of artifacts are remembered by path, size and modification time,
+ * so subsequent builds neither open nor re-read unchanged jars.
+ */
+public class PersistenceDescriptorIndex {
+
+    public static final List<String> DEFAULT_PERSISTENCE_PATTERNS =
+            Collections.unmodifiableList(Arrays.asList("**/*-persistence.xml", "**/persistence.xml"));
+
+    protected static final String INDEX_FORMAT_VERSION = "1";
+
+    protected final File cacheDir;
+    protected final File artifactHashesFile;
+    protected final Logger log;
+
+    protected Properties artifactHashes;
+    protected boolean artifactHashesChanged;
+
+    public PersistenceDescriptorIndex(File cacheDir, File artifactHashesFile, Logger log) {
+        this.cacheDir = cacheDir;
+        this.artifactHashesFile = artifactHashesFile;
+        this.log = log;
+    }
+
+    /**
+     * Returns descriptors of the given jar, scanning the jar only if it is not indexed yet.
+     *
+     * @param jar                 dependency jar
+     * @param persistencePatterns Ant-style patterns of persistence XML files
+     * @return descriptors found in the jar
+     */
+    public JarDescriptors getDescriptors(File jar, List<String> persistencePatterns) {
+        String jarHash = getArtifactHash(jar);
+        String patternsHash = HashUtils.sha1(INDEX_FORMAT_VERSION + persistencePatterns).substring(0, 8);
+        File indexFile = new File(cacheDir, jarHash + "-" + patternsHash + ".json");
+
+        if (indexFile.exists()) {
+            try {
+                return readIndexFile(indexFile, jarHash);
+            } catch (RuntimeException e) {
+                log.info("[CubaEnhancing] Unable to read descriptor index {}, the jar will be scanned again: {}",
+                        indexFile, e.toString());
+            }
+        }
+
+        log.debug("[CubaEnhancing] Scanning {} for persistence descriptors", jar);
+
+        JarDescriptors descriptors = scanJar(jar, jarHash, persistencePatterns);
+        writeIndexFile(indexFile, descriptors);
+        return descriptors;
+    }
+
+    /**
+     * Stores remembered artifact hashes, if any of them have been changed.
+     */
+    public void save() {
+        if (!artifactHashesChanged) {
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        artifactHashesFile.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(artifactHashesFile.toPath(), StandardCharsets.UTF_8)) {
+            artifactHashes.store(writer, null);
+        } catch (IOException e) {
+            log.info("[CubaEnhancing] Unable to store artifact hashes to " + artifactHashesFile, e);
+        }
+        artifactHashesChanged = false;
+    }
+
+    /**
+     * Reads a descriptor from a project file.
+     *
+     * @param file             descriptor file
+     * @param containerElement name of the element containing {@code class} elements
+     * @return descriptor
+     */
+    public static Descriptor readDescriptor(File file, String containerElement) {
+        try {
+            String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+            return new Descriptor(file.getPath(), HashUtils.sha1(content), content,
+                    parseClasses(content, containerElement));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + file.getAbsolutePath(), e);
+        }
+    }
+
+    protected String getArtifactHash(File jar) {
+        if (artifactHashes == null) {
+            artifactHashes = new Properties();
+            if (artifactHashesFile.exists()) {
+                try (Reader reader = Files.newBufferedReader(artifactHashesFile.toPath(), StandardCharsets.UTF_8)) {
+                    artifactHashes.load(reader);
+                } catch (IOException e) {
+                    log.info("[CubaEnhancing] Unable to read artifact hashes from " + artifactHashesFile, e);
+                }
+            }
+        }
+
+        String key = jar.getAbsolutePath();
+        String stamp = jar.length() + ":" + jar.lastModified() + ":";
+
+        String value = artifactHashes.getProperty(key);
+        if (value != null && value.startsWith(stamp)) {
+            return value.substring(stamp.length());
+        }
+
+        String hash = HashUtils.sha1(jar);
+        artifactHashes.setProperty(key, stamp + hash);
+        artifactHashesChanged = true;
+        return hash;
+    }
+
+    protected JarDescriptors scanJar(File jar, String jarHash, List<String> persistencePatterns) {
+        List<Descriptor> persistence = new ArrayList<>();
+
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".xml")
+                        || !matches(entry.getName(), persistencePatterns)) {
+                    continue;
+                }
+
+                String content;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    content = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+                }
+                persistence.add(new Descriptor(entry.getName(), HashUtils.sha1(content), content,
+                        parseClasses(content, "persistence-unit")));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to scan " + jar.getAbsolutePath(), e);
+        }
+
+        return new JarDescriptors(jarHash, persistence);
+    }
+
+    protected boolean matches(String entryName, List<String> patterns) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, entryName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected JarDescriptors readIndexFile(File indexFile, String jarHash) {
+        Map<String, Object> json = (Map<String, Object>) new JsonSlurper().parse(indexFile, StandardCharsets.UTF_8.name());
+        return new JarDescriptors(jarHash, fromJson((List<Map<String, Object>>) json.get("persistence")));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<Descriptor> fromJson(List<Map<String, Object>> list) {
+        List<Descriptor> result = new ArrayList<>();
+        for (Map<String, Object> item : list) {
+            result.add(new Descriptor((String) item.get("path"), (String) item.get("hash"),
+                    (String) item.get("content"), new ArrayList<>((List<String>) item.get("classes"))));
+        }
+        return result;
+    }
+
+    protected void writeIndexFile(File indexFile, JarDescriptors descriptors) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("persistence", toJson(descriptors.getPersistence()));
+
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            cacheDir.mkdirs();
+            // write to a temporary file first, the cache directory can be shared by concurrent builds
+            File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", cacheDir);
+            FileUtils.writeStringToFile(tmpFile, JsonOutput.toJson(json), StandardCharsets.UTF_8);
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.info("[CubaEnhancing] Unable to store descriptor index " + indexFile, e);
+        }
+    }
+
+    protected List<Map<String, Object>> toJson(List<Descriptor> descriptors) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Descriptor descriptor : descriptors) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("path", descriptor.getPath());
+            item.put("hash", descriptor.getHash());
+            item.put("content", descriptor.getContent());
+            item.put("classes", descriptor.getClasses());
+            result.add(item);
+        }
+        return result;
+    }
+
+    protected static List<String> parseClasses(String content, String containerElement) {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(new InputSource(new StringReader(content)));
+        } catch (SAXException | ParserConfigurationException | IOException e) {
+            throw new RuntimeException("Unable to parse descriptor", e);
+        }
+
+        List<String> classes = new ArrayList<>();
+        NodeList containers = document.getElementsByTagNameNS("*", containerElement);
+        if (containers.getLength() > 0) {
+            NodeList children = containers.item(0).getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child instanceof Element && "class".equals(child.getLocalName())) {
+                    classes.add(child.getTextContent().trim());
+                }
+            }
+        }
+        return classes;
+    }
+
+    public static class JarDescriptors {
+
+        protected final String hash;
+        protected final List<Descriptor> persistence;
+
+        public JarDescriptors(String hash, List<Descriptor> persistence) {
+            this.hash = hash;
+            this.persistence = persistence;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public List<Descriptor> getPersistence() {
+            return persistence;
+        }
+    }
+
+    public static class Descriptor {
+
+        protected final String path;
+        protected final String hash;
+        protected final String content;
+        protected final List<String> classes;
+
+        public Descriptor(String path, String hash, String content, List<String> classes) {
+            this.path = path;
+            this.hash = hash;
+            this.content = content;
+            this.classes = classes;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public List<String> getClasses() {
+            return classes;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
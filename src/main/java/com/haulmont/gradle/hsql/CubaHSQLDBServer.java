@@ -208,6 +208,9 @@ public class CubaHSQLDBServer extends JFrame {
     }
 
     private String getDbPath(String dbPath, String dbName) {
+        if (dbPath.startsWith("mem:")) {
+            return dbPath;
+        }
         File dbDir = new File(dbPath, dbName);
         return new File(dbDir, dbName).getAbsolutePath();
     }
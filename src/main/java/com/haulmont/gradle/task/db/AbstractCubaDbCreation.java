@@ -16,7 +16,15 @@
 
 package com.haulmont.gradle.task.db;
 
+import com.haulmont.gradle.utils.HashUtils;
+import org.gradle.api.GradleException;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.sql.SQLException;
 
 public abstract class AbstractCubaDbCreation extends CubaDbTask {
@@ -29,23 +37,47 @@ public abstract class AbstractCubaDbCreation extends CubaDbTask {
     public void createDb() {
         init();
 
-        dropAndCreateDatabase();
-
-        getProject().getLogger().warn("Using database URL: " + dbUrl + ", user: " + dbUser);
         try {
+            if (restoreSnapshot()) {
+                return;
+            }
+
+            dropAndCreateDatabase();
+
+            getProject().getLogger().warn(logPrefix + "Using database URL: " + dbUrl + ", user: " + dbUser);
+
             createSysDbChangeLogTable();
 
             initDatabase(null);
 
             executeAuxiliaryScript();
+
+            saveSnapshot();
         } finally {
+            writeExecutionReport();
+            closeScriptIndex();
             closeSql();
         }
     }
 
+    /**
+     * Restores the database from a snapshot made by {@link #saveSnapshot()} instead of executing the scripts.
+     *
+     * @return true if the database is restored
+     */
+    protected boolean restoreSnapshot() {
+        return false;
+    }
+
+    /**
+     * Invoked after the database is successfully created by the scripts.
+     */
+    protected void saveSnapshot() {
+    }
+
     protected void executeAuxiliaryScript() {
         if (auxiliaryScript != null) {
-            getProject().getLogger().warn("Executing SQL script: " + auxiliaryScript.getAbsolutePath());
+            getProject().getLogger().warn(logPrefix + "Executing SQL script: " + auxiliaryScript.getAbsolutePath());
             executeSqlScript(auxiliaryScript);
         }
     }
@@ -64,6 +96,37 @@ public abstract class AbstractCubaDbCreation extends CubaDbTask {
 
     protected abstract void dropAndCreateDatabase();
 
+    /**
+     * Returns the hash of everything the created database depends on: the DBMS, the user, names and content of
+     * init scripts, names of update scripts and the auxiliary script. Databases created from the same scripts have
+     * the same fingerprint.
+     */
+    protected String calculateScriptsFingerprint() {
+        MessageDigest digest = HashUtils.newSha1();
+        updateDigest(digest, storeName + "\n" + dbms + "\n" + dbmsVersion + "\n" + dbUser + "\n" + timeStampType);
+        try {
+            for (Path script : createScriptFinder(INIT_SCRIPT_EXTENSIONS).getInitScriptPaths(null)) {
+                updateDigest(digest, getScriptName(script));
+                digest.update(Files.readAllBytes(script));
+            }
+            for (Path script : createScriptFinder(UPDATE_SCRIPT_EXTENSIONS).getUpdateScriptPaths(null)) {
+                updateDigest(digest, getScriptName(script));
+            }
+            if (auxiliaryScript != null) {
+                updateDigest(digest, auxiliaryScript.getName());
+                digest.update(Files.readAllBytes(auxiliaryScript.toPath()));
+            }
+        } catch (IOException e) {
+            throw new GradleException("Unable to calculate fingerprint of db scripts", e);
+        }
+        return HashUtils.toHex(digest.digest());
+    }
+
+    protected void updateDigest(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
     public void setAuxiliaryScript(File auxiliaryScript) {
         this.auxiliaryScript = auxiliaryScript;
     }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import groovy.lang.GroovyObject;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Build scoped pools of JDBC connections shared by database tasks and groovy upgrade scripts.
+ * <p>
+ * Pools are keyed by driver, URL and user, so a chain like {@code createDb updateDb} reuses connections opened by
+ * the previous task. All pools are closed when the build finishes.
+ * <p>
+ * A borrowed connection gets the catalog and schema the first connection of the pool was opened with, so that
+ * e.g. {@code use} or {@code set search_path} executed by a script does not affect the next task. Uncommitted work
+ * is rolled back when a connection is returned.
+ */
+public class ConnectionPools {
+
+    protected static final int MAX_CONNECTIONS = 8;
+    protected static final long MAX_WAIT_MS = 60000;
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPools.class);
+
+    private static final Map<String, BasicDataSource> dataSources = new HashMap<>();
+    // initial catalog and schema of connections keyed by pool
+    private static final Map<String, String[]> sessionDefaults = new HashMap<>();
+
+    private static Gradle registeredBuild;
+
+    private ConnectionPools() {
+    }
+
+    /**
+     * Returns a pooled data source for the given connection parameters, creating it if needed.
+     */
+    public static synchronized DataSource getDataSource(Project project, String driver, String url,
+                                                        String user, String password) {
+        registerBuildListener(project.getGradle());
+
+        String key = getKey(driver, url, user);
+        BasicDataSource dataSource = dataSources.get(key);
+        if (dataSource != null && (dataSource.isClosed() || !Objects.equals(dataSource.getPassword(), password))) {
+            close(dataSource);
+            sessionDefaults.remove(key);
+            dataSource = null;
+        }
+        if (dataSource == null) {
+            log.debug("[ConnectionPools] creating connection pool for {}, user: {}", url, user);
+
+            dataSource = new BasicDataSource();
+            dataSource.setUrl(url);
+            dataSource.setUsername(user);
+            dataSource.setPassword(password);
+            dataSource.setDriverClassName(driver);
+            dataSource.setDriverClassLoader(GroovyObject.class.getClassLoader());
+            dataSource.setMaxTotal(MAX_CONNECTIONS);
+            // a build fails instead of hanging if connections are leaked
+            dataSource.setMaxWaitMillis(MAX_WAIT_MS);
+            dataSource.setDefaultAutoCommit(true);
+            dataSource.setAutoCommitOnReturn(true);
+            dataSource.setRollbackOnReturn(true);
+            dataSources.put(key, dataSource);
+        }
+        return dataSource;
+    }
+
+    /**
+     * Borrows a connection of the pool, closing the connection returns it to the pool.
+     */
+    public static Connection getConnection(Project project, String driver, String url,
+                                           String user, String password) throws SQLException {
+        Connection connection = getDataSource(project, driver, url, user, password).getConnection();
+        try {
+            resetSession(getKey(driver, url, user), connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private static void resetSession(String key, Connection connection) throws SQLException {
+        String[] defaults;
+        synchronized (ConnectionPools.class) {
+            defaults = sessionDefaults.get(key);
+            if (defaults == null) {
+                sessionDefaults.put(key, new String[]{connection.getCatalog(), getSchema(connection)});
+                return;
+            }
+        }
+        if (defaults[0] != null && !defaults[0].equals(connection.getCatalog())) {
+            connection.setCatalog(defaults[0]);
+        }
+        if (defaults[1] != null && !defaults[1].equals(getSchema(connection))) {
+            connection.setSchema(defaults[1]);
+        }
+    }
+
+    private static String getSchema(Connection connection) throws SQLException {
+        try {
+            return connection.getSchema();
+        } catch (SQLFeatureNotSupportedException | AbstractMethodError e) {
+            // drivers before JDBC 4.1, e.g. jTDS
+            return null;
+        }
+    }
+
+    /**
+     * Closes pools connected to the given URL, e.g. before the database is dropped.
+     */
+    public static synchronized void evict(String url) {
+        Iterator<BasicDataSource> iterator = dataSources.values().iterator();
+        while (iterator.hasNext()) {
+            BasicDataSource dataSource = iterator.next();
+            if (Objects.equals(dataSource.getUrl(), url)) {
+                close(dataSource);
+                iterator.remove();
+            }
+        }
+        sessionDefaults.keySet().removeIf(key -> key.contains("|" + url + "|"));
+    }
+
+    public static synchronized void closeAll() {
+        for (BasicDataSource dataSource : dataSources.values()) {
+            close(dataSource);
+        }
+        dataSources.clear();
+        sessionDefaults.clear();
+        registeredBuild = null;
+    }
+
+    private static void registerBuildListener(Gradle gradle) {
+        // the class can outlive a build in the Gradle daemon, so the listener is registered for each build
+        if (registeredBuild != gradle) {
+            registeredBuild = gradle;
+            gradle.buildFinished(result -> closeAll());
+        }
+    }
+
+    private static String getKey(String driver, String url, String user) {
+        return driver + "|" + url + "|" + user;
+    }
+
+    private static void close(BasicDataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (SQLException e) {
+            log.debug("[ConnectionPools] unable to close connection pool for " + dataSource.getUrl(), e);
+        }
+    }
+}
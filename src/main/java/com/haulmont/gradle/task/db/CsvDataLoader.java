@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import groovy.lang.GroovyObject;
+import org.apache.commons.lang3.StringUtils;
+import org.gradle.api.GradleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads rows of a {@code .csv} or {@code .tsv} data script into a table.
+ * <p>
+ * The first line of the file declares the table and its columns, the other lines contain values in the order of
+ * the columns:
+ * <pre>
+ * SEC_ROLE(ID, VERSION, NAME, ROLE_TYPE)
+ * 0c018061-b26f-4de2-a5be-dff348347f93,1,Administrators,10
+ * </pre>
+ * In PostgreSQL the data is passed to the {@code COPY} command, in other databases it is inserted with batches of
+ * prepared statements. Values are converted to the types of the columns.
+ */
+public class CsvDataLoader {
+
+    public static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList("csv", "tsv"));
+
+    protected static final Pattern HEADER_PATTERN = Pattern.compile("\\s*([\\w.$\"]+)\\s*\\((.+)\\)\\s*");
+
+    protected static final String PG_CONNECTION_CLASS = "org.postgresql.PGConnection";
+
+    private static final Logger log = LoggerFactory.getLogger(CsvDataLoader.class);
+
+    protected final Connection connection;
+    protected final String dbms;
+    protected int batchSize = 1000;
+
+    public CsvDataLoader(Connection connection, String dbms) {
+        this.connection = connection;
+        this.dbms = dbms;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public static boolean isDataScript(File file) {
+        return isDataScript(file.toPath());
+    }
+
+    public static boolean isDataScript(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return EXTENSIONS.stream().anyMatch(extension -> name.endsWith("." + extension));
+    }
+
+    /**
+     * Loads the file in a single transaction.
+     *
+     * @return number of loaded rows
+     */
+    public long load(File file) {
+        return load(file.toPath());
+    }
+
+    /**
+     * Loads the file in a single transaction.
+     *
+     * @return number of loaded rows
+     */
+    public long load(Path file) {
+        char separator = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv") ? '\t' : ',';
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String headerLine = reader.readLine();
+            if (headerLine != null && headerLine.startsWith("\uFEFF")) {
+                headerLine = headerLine.substring(1);
+            }
+            TableHeader header = parseHeader(headerLine);
+            if (header == null) {
+                throw new GradleException("Data script " + getLocation(file) + " must start with a header like " +
+                        "TABLE_NAME(COLUMN1, COLUMN2), found: " + headerLine);
+            }
+
+            Object copyManager = CubaDbTask.POSTGRES_DBMS.equals(dbms) ? getCopyManager() : null;
+            if (copyManager != null) {
+                return copy(copyManager, header, separator, reader);
+            } else {
+                return insert(header, separator, reader, file);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new GradleException("Exception when reading data script: " + getLocation(file), e);
+        } catch (SQLException e) {
+            throw new GradleException("Exception when loading data script: " + getLocation(file), e);
+        }
+    }
+
+    protected String getLocation(Path file) {
+        return file.getFileSystem() == FileSystems.getDefault() ? file.toAbsolutePath().toString() : file.toUri().toString();
+    }
+
+    /**
+     * @return the table and the columns declared by the line or null if the line is not a header
+     */
+    public static TableHeader parseHeader(String line) {
+        if (line == null) {
+            return null;
+        }
+        Matcher matcher = HEADER_PATTERN.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : matcher.group(2).split(",")) {
+            column = column.trim();
+            if (column.isEmpty()) {
+                return null;
+            }
+            columns.add(column);
+        }
+        return new TableHeader(matcher.group(1), columns);
+    }
+
+    protected long copy(Object copyManager, TableHeader header, char separator, Reader reader) throws SQLException {
+        String command = "copy " + header.getTable() + " (" + StringUtils.join(header.getColumns(), ", ") + ")" +
+                " from stdin with (format csv" + (separator == '\t' ? ", delimiter E'\\t'" : "") + ")";
+        log.debug("[CsvDataLoader] {}", command);
+        try {
+            Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+            return (Long) copyIn.invoke(copyManager, command, reader);
+        } catch (ReflectiveOperationException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new GradleException("Unable to execute " + command, e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * @return CopyManager of the PostgreSQL JDBC driver or null if the driver does not provide it
+     */
+    protected Object getCopyManager() {
+        try {
+            Class<?> pgConnectionClass = Class.forName(PG_CONNECTION_CLASS, false, GroovyObject.class.getClassLoader());
+            if (!connection.isWrapperFor(pgConnectionClass)) {
+                return null;
+            }
+            Object pgConnection = connection.unwrap(pgConnectionClass);
+            return pgConnectionClass.getMethod("getCopyAPI").invoke(pgConnection);
+        } catch (ReflectiveOperationException | SQLException | LinkageError e) {
+            log.debug("[CsvDataLoader] COPY is not available, rows are inserted: {}", e.toString());
+            return null;
+        }
+    }
+
+    protected long insert(TableHeader header, char separator, Reader reader, Path file) throws SQLException {
+        int[] types = getColumnTypes(header);
+        String insert = "insert into " + header.getTable() + " (" + StringUtils.join(header.getColumns(), ", ") + ")" +
+                " values (" + StringUtils.repeat("?", ", ", types.length) + ")";
+        log.debug("[CsvDataLoader] {}", insert);
+
+        boolean autoCommit = connection.getAutoCommit();
+        // the header line is already read
+        CsvRecordReader records = new CsvRecordReader(reader, separator, 2);
+        long count = 0;
+        try (PreparedStatement statement = connection.prepareStatement(insert)) {
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+            while (records.hasNext()) {
+                List<String> values = records.next();
+                if (values.size() != types.length) {
+                    throw new GradleException(String.format("%s:%d: expected %d values, found %d",
+                            getLocation(file), records.getRecordLineNumber(), types.length, values.size()));
+                }
+                for (int i = 0; i < types.length; i++) {
+                    setParameter(statement, i + 1, types[i], values.get(i), file, records);
+                }
+                statement.addBatch();
+                if (++count % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            if (count % batchSize != 0) {
+                statement.executeBatch();
+            }
+            if (autoCommit) {
+                connection.commit();
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (autoCommit) {
+                connection.rollback();
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                connection.setAutoCommit(true);
+            }
+        }
+        return count;
+    }
+
+    protected int[] getColumnTypes(TableHeader header) throws SQLException {
+        String query = "select " + StringUtils.join(header.getColumns(), ", ") + " from " + header.getTable() + " where 1=0";
+        try (Statement statement = connection.createStatement()) {
+            ResultSetMetaData metaData = statement.executeQuery(query).getMetaData();
+            int[] types = new int[metaData.getColumnCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            return types;
+        }
+    }
+
+    protected void setParameter(PreparedStatement statement, int index, int type, String value,
+                                Path file, CsvRecordReader records) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, type);
+            return;
+        }
+        try {
+            switch (type) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    statement.setInt(index, Integer.parseInt(value.trim()));
+                    break;
+                case Types.BIGINT:
+                    statement.setLong(index, Long.parseLong(value.trim()));
+                    break;
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    statement.setBigDecimal(index, new BigDecimal(value.trim()));
+                    break;
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    statement.setBoolean(index, parseBoolean(value.trim()));
+                    break;
+                case Types.DATE:
+                    statement.setDate(index, Date.valueOf(value.trim()));
+                    break;
+                case Types.TIME:
+                    statement.setTime(index, Time.valueOf(value.trim()));
+                    break;
+                case Types.TIMESTAMP:
+                    statement.setTimestamp(index, Timestamp.valueOf(value.trim()));
+                    break;
+                default:
+                    statement.setString(index, value);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new GradleException(String.format("%s:%d: invalid value of column %d: %s",
+                    getLocation(file), records.getRecordLineNumber(), index, value), e);
+        }
+    }
+
+    protected boolean parseBoolean(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "true":
+            case "t":
+            case "1":
+                return true;
+            case "false":
+            case "f":
+            case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException("Invalid boolean value: " + value);
+        }
+    }
+
+    public static class TableHeader {
+
+        protected final String table;
+        protected final List<String> columns;
+
+        public TableHeader(String table, List<String> columns) {
+            this.table = table;
+            this.columns = columns;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+    }
+}
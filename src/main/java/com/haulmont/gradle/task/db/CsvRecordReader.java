@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads records of a CSV or TSV file in a single pass.
+ * <p>
+ * Values follow the rules of the PostgreSQL {@code COPY ... (FORMAT csv)} command, so that a file is loaded the
+ * same way by {@code COPY} and by inserts: a value can be enclosed in double quotes, a quote inside a quoted value
+ * is doubled, an unquoted empty value is NULL and a quoted empty value is an empty string. Empty lines are skipped.
+ */
+public class CsvRecordReader implements Iterator<List<String>>, Closeable {
+
+    protected final Reader reader;
+    protected final char separator;
+
+    protected int pushedBack = -2;
+    protected int lineNumber = 1;
+    protected int recordLineNumber;
+
+    protected List<String> nextRecord;
+
+    /**
+     * @param reader    file reader
+     * @param separator values separator, e.g. comma or tab
+     */
+    public CsvRecordReader(Reader reader, char separator) {
+        this(reader, separator, 1);
+    }
+
+    /**
+     * @param reader          file reader
+     * @param separator       values separator, e.g. comma or tab
+     * @param firstLineNumber number of the line the reader is positioned at, e.g. 2 after a header line
+     */
+    public CsvRecordReader(Reader reader, char separator, int firstLineNumber) {
+        this.reader = reader;
+        this.separator = separator;
+        this.lineNumber = firstLineNumber;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextRecord == null) {
+            try {
+                nextRecord = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read CSV file", e);
+            }
+        }
+        return nextRecord != null;
+    }
+
+    @Override
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<String> record = nextRecord;
+        nextRecord = null;
+        return record;
+    }
+
+    /**
+     * @return number of the line where the last returned record starts
+     */
+    public int getRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    protected List<String> readRecord() throws IOException {
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            c = read();
+        }
+        if (c == -1) {
+            return null;
+        }
+        recordLineNumber = lineNumber;
+
+        List<String> record = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (c == '"') {
+                quoted = true;
+                readQuoted(sb);
+                c = read();
+            } else if (c == separator || c == '\n' || c == '\r' || c == -1) {
+                record.add(quoted || sb.length() > 0 ? sb.toString() : null);
+                if (c != separator) {
+                    if (c == '\r') {
+                        int next = read();
+                        if (next != '\n') {
+                            unread(next);
+                        }
+                    }
+                    return record;
+                }
+                sb.setLength(0);
+                quoted = false;
+                c = read();
+            } else {
+                sb.append((char) c);
+                c = read();
+            }
+        }
+    }
+
+    protected void readQuoted(StringBuilder sb) throws IOException {
+        int startLine = lineNumber;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new IllegalStateException("Unterminated quoted value started at line " + startLine);
+            }
+            if (c == '"') {
+                int next = read();
+                if (next != '"') {
+                    unread(next);
+                    return;
+                }
+            }
+            sb.append((char) c);
+        }
+    }
+
+    protected int read() throws IOException {
+        int c;
+        if (pushedBack != -2) {
+            c = pushedBack;
+            pushedBack = -2;
+        } else {
+            c = reader.read();
+        }
+        if (c == '\n') {
+            lineNumber++;
+        }
+        return c;
+    }
+
+    protected void unread(int c) {
+        pushedBack = c;
+        if (c == '\n') {
+            lineNumber--;
+        }
+    }
+}
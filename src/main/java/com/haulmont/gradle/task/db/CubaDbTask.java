@@ -32,13 +32,21 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -56,6 +64,17 @@ public abstract class CubaDbTask extends DefaultTask {
     protected static final String SQL_COMMENT_PREFIX = "--";
     protected static final String CURRENT_SCHEMA_PARAM = "currentSchema";
     protected static final String MS_SQL_2005 = "2005";
+    protected static final int MARK_SCRIPTS_BATCH_SIZE = 500;
+    protected static final int MARK_SCRIPTS_FLUSH_SIZE = 10;
+    protected static final int REPORTED_STATEMENTS = 100;
+    protected static final List<String> INIT_SCRIPT_EXTENSIONS = Arrays.asList("sql", "csv", "tsv");
+    protected static final List<String> UPDATE_SCRIPT_EXTENSIONS = Arrays.asList("sql", "csv", "tsv", "groovy");
+
+    /**
+     * Statements committing the current transaction implicitly in Oracle, MySQL and HSQLDB.
+     */
+    protected static final Set<String> DDL_KEYWORDS = new HashSet<>(Arrays.asList(
+            "create", "alter", "drop", "truncate", "rename", "grant", "revoke", "comment"));
 
     protected AppProperties properties;
     protected String storeName = Stores.MAIN;
@@ -74,10 +93,30 @@ public abstract class CubaDbTask extends DefaultTask {
     protected String timeStampType;
     protected String appHomeDir;
     protected File dbDir;
+    protected int batchSize;
+    protected boolean scriptTransactionsEnabled;
+    protected int commitSize;
+    protected String logPrefix = "";
+    protected ScriptIndex scriptIndex;
+    protected ScriptExecutionReport executionReport = new ScriptExecutionReport(REPORTED_STATEMENTS);
+    protected ScriptExecutionReport.ScriptTiming scriptTiming;
+    protected int slowestReportSize = 10;
+    protected List<File> dbScriptsArchives = new ArrayList<>();
     protected Sql sqlInstance;
 
     private final Logger log = LoggerFactory.getLogger(CubaDbTask.class);
 
+    public int getSlowestReportSize() {
+        return slowestReportSize;
+    }
+
+    /**
+     * Sets the number of the slowest scripts and statements logged after execution, 0 disables the log summary.
+     */
+    public void setSlowestReportSize(int slowestReportSize) {
+        this.slowestReportSize = slowestReportSize;
+    }
+
     public String getStoreName() {
         return storeName;
     }
@@ -198,6 +237,66 @@ public abstract class CubaDbTask extends DefaultTask {
         this.dbDir = dbDir;
     }
 
+    public List<File> getDbScriptsArchives() {
+        return dbScriptsArchives;
+    }
+
+    /**
+     * Sets archives to read scripts from instead of the db directory, e.g. produced by the {@code dbScriptsArchive}
+     * task. The archives are read directly without extraction.
+     */
+    public void setDbScriptsArchives(Iterable<File> dbScriptsArchives) {
+        this.dbScriptsArchives = new ArrayList<>();
+        dbScriptsArchives.forEach(this.dbScriptsArchives::add);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of consecutive DML statements of a script sent to the database in one JDBC batch.
+     * Batching is disabled if the value is 0.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isScriptTransactionsEnabled() {
+        return scriptTransactionsEnabled;
+    }
+
+    /**
+     * Enables execution of SQL scripts in transactions instead of autocommit mode. A failed script is rolled back
+     * to the last commit.
+     */
+    public void setScriptTransactionsEnabled(boolean scriptTransactionsEnabled) {
+        this.scriptTransactionsEnabled = scriptTransactionsEnabled;
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * Sets the number of statements executed in one transaction when script transactions are enabled.
+     * If the value is 0, a whole script is executed in one transaction.
+     */
+    public void setCommitSize(int commitSize) {
+        this.commitSize = commitSize;
+    }
+
+    public String getLogPrefix() {
+        return logPrefix;
+    }
+
+    /**
+     * Sets a prefix of log messages, used to distinguish data stores updated concurrently.
+     */
+    public void setLogPrefix(String logPrefix) {
+        this.logPrefix = logPrefix;
+    }
+
     public void setAppHomeDir(String appHomeDir) {
         this.appHomeDir = appHomeDir;
     }
@@ -223,6 +322,8 @@ public abstract class CubaDbTask extends DefaultTask {
 
         Project project = getProject();
         dbDir = new File(project.getBuildDir(), dbFolder);
+        closeScriptIndex();
+        executionReport = new ScriptExecutionReport(REPORTED_STATEMENTS);
 
         initDriverClasspath(project);
     }
@@ -367,33 +468,91 @@ public abstract class CubaDbTask extends DefaultTask {
         initDatabase(oneModuleDir, any -> true);
     }
 
-    protected void initDatabase(String oneModuleDir, Function<File, Boolean> scriptFilter) {
+    protected void initDatabase(String oneModuleDir, Function<Path, Boolean> scriptFilter) {
         Project project = getProject();
+        List<String> executedScripts = new ArrayList<>();
+        Throwable failure = null;
         try {
-            ScriptFinder scriptFinder = new ScriptFinder(storeName, dbms, dbmsVersion, dbDir, Collections.singletonList("sql"), project);
+            ScriptFinder scriptFinder = createScriptFinder(INIT_SCRIPT_EXTENSIONS);
 
-            List<File> initScripts = scriptFinder.getInitScripts(oneModuleDir)
+            List<Path> initScripts = scriptFinder.getInitScriptPaths(oneModuleDir)
                     .stream()
                     .filter(scriptFilter::apply)
                     .collect(Collectors.toList());
 
             initScripts.forEach(file -> {
-                project.getLogger().warn("Executing SQL script: " + file.getAbsolutePath());
-                executeSqlScript(file);
-                String name = getScriptName(file);
-                markScript(name, true);
+                if (CsvDataLoader.isDataScript(file)) {
+                    project.getLogger().warn(logPrefix + "Loading data script: " + getScriptLocation(file));
+                    executeDataScript(file);
+                } else {
+                    project.getLogger().warn(logPrefix + "Executing SQL script: " + getScriptLocation(file));
+                    executeSqlScript(file);
+                }
+                executedScripts.add(getScriptName(file));
             });
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
         } finally {
             // mark all update scripts as executed even in case of createDb failure
-            ScriptFinder scriptFinder = new ScriptFinder(storeName, dbms, dbmsVersion, dbDir, Arrays.asList("sql", "groovy"), project);
-            List<File> updateScripts = scriptFinder.getUpdateScripts(oneModuleDir);
-            updateScripts.forEach(file -> {
-                String name = getScriptName(file);
-                markScript(name, true);
-            });
+            ScriptFinder scriptFinder = createScriptFinder(UPDATE_SCRIPT_EXTENSIONS);
+            List<Path> updateScripts = scriptFinder.getUpdateScriptPaths(oneModuleDir);
+            updateScripts.forEach(file -> executedScripts.add(getScriptName(file)));
+
+            markScripts(executedScripts, true, failure);
+        }
+    }
+
+    /**
+     * Returns the index of scripts in the db directory, which is built once per task execution.
+     */
+    protected ScriptIndex getScriptIndex() {
+        if (scriptIndex == null) {
+            if (dbScriptsArchives.isEmpty()) {
+                scriptIndex = new ScriptIndex(dbDir, dbms, dbmsVersion);
+            } else {
+                getProject().getLogger().info("[CubaDbTask] reading scripts from archives " + dbScriptsArchives);
+                scriptIndex = ScriptIndex.forArchives(dbScriptsArchives, dbms, dbmsVersion);
+            }
+        }
+        return scriptIndex;
+    }
+
+    protected void closeScriptIndex() {
+        if (scriptIndex != null) {
+            try {
+                scriptIndex.close();
+            } catch (IOException e) {
+                getProject().getLogger().warn("Unable to close db scripts archives: " + e);
+            }
+            scriptIndex = null;
         }
     }
 
+    protected ScriptFinder createScriptFinder(List<String> extensions) {
+        return new ScriptFinder(storeName, getScriptIndex(), extensions, getProject());
+    }
+
+    /**
+     * @return script path relative to the db directory or the archive root
+     */
+    protected String getScriptName(Path script) {
+        if (script.getFileSystem() == FileSystems.getDefault()) {
+            return getScriptName(script.toFile());
+        }
+        return getScriptIndex().getScriptName(script);
+    }
+
+    /**
+     * @return script location for log messages
+     */
+    protected String getScriptLocation(Path script) {
+        if (script.getFileSystem() == FileSystems.getDefault()) {
+            return script.toFile().getAbsolutePath();
+        }
+        return script.toUri().toString();
+    }
+
     protected String getScriptName(File file) {
         try {
             String dir = dbDir.getCanonicalPath();
@@ -416,44 +575,335 @@ public abstract class CubaDbTask extends DefaultTask {
     }
 
     protected void executeSqlScript(File file) {
-        try {
-            String script = FileUtils.readFileToString(file, "UTF-8");
-            script = script.replaceAll("[\r\n]+", System.getProperty("line.separator"));
+        executeSqlScript(file.toPath());
+    }
 
-            Sql sql = getSql();
+    protected void executeSqlScript(Path file) {
+        Sql sql = getSql();
 
-            ScriptSplitter splitter = new ScriptSplitter(delimiter);
-            List<String> commands = splitter.split(script);
-            for (String sqlCommand : commands) {
+        startScriptTiming(file, "sql");
+        boolean failed = true;
+        ScriptTransaction transaction = scriptTransactionsEnabled ? new ScriptTransaction(sql.getConnection()) : null;
+        try (ScriptTokenizer tokenizer = new ScriptTokenizer(
+                Files.newBufferedReader(file, StandardCharsets.UTF_8), delimiter,
+                MYSQL_DBMS.equals(dbms), POSTGRES_DBMS.equals(dbms))) {
+            List<String> batch = new ArrayList<>();
+            while (tokenizer.hasNext()) {
+                String sqlCommand = tokenizer.next();
                 if (!isEmpty(sqlCommand)) {
                     getProject().getLogger().info("[CubaDbTask] executing SQL: " + sqlCommand);
-                    try {
-                        sql.execute(sqlCommand);
-                    } catch (SQLException e) {
-                        throw new GradleException("Exception when executing SQL: " + sqlCommand, e);
+                    if (transaction != null && isImplicitCommit(sqlCommand)) {
+                        // make the boundary explicit, the statement commits the transaction anyway
+                        executeBatch(sql, batch);
+                        transaction.commit();
+                    }
+                    if (batchSize > 0 && isBatchable(sqlCommand)) {
+                        batch.add(sqlCommand);
+                        if (batch.size() >= batchSize) {
+                            executeBatch(sql, batch);
+                        }
+                    } else {
+                        executeBatch(sql, batch);
+                        executeStatement(sql, sqlCommand);
+                    }
+                    if (transaction != null && transaction.statementExecuted()) {
+                        executeBatch(sql, batch);
+                        transaction.commit();
                     }
                 }
             }
+            executeBatch(sql, batch);
+            if (transaction != null) {
+                transaction.commit();
+            }
+            failed = false;
+        } catch (IOException | UncheckedIOException e) {
+            throw new GradleException("Exception when executing sql script: " + getScriptLocation(file), e);
+        } catch (RuntimeException e) {
+            if (transaction != null) {
+                getProject().getLogger().warn(logPrefix + "Rolling back uncommitted statements of " + getScriptLocation(file));
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            if (transaction != null) {
+                transaction.close();
+            }
+            finishScriptTiming(failed);
+        }
+    }
+
+    /**
+     * Loads a {@code .csv} or {@code .tsv} data script, see {@link CsvDataLoader} for the file format.
+     */
+    protected void executeDataScript(Path file) {
+        CsvDataLoader loader = new CsvDataLoader(getSql().getConnection(), dbms);
+        if (batchSize > 0) {
+            loader.setBatchSize(batchSize);
+        }
+        startScriptTiming(file, "data");
+        boolean failed = true;
+        try {
+            long rows = loader.load(file);
+            scriptTiming.addRows(rows);
+            failed = false;
+            getProject().getLogger().info("[CubaDbTask] loaded " + rows + " rows from " + file.getFileName());
+        } finally {
+            finishScriptTiming(failed);
+        }
+    }
+
+    /**
+     * Starts measuring the script, statements executed until {@link #finishScriptTiming(boolean)} are attributed
+     * to it.
+     */
+    protected void startScriptTiming(Path file, String type) {
+        String name;
+        if (file.getFileSystem() == FileSystems.getDefault()
+                && !file.toAbsolutePath().startsWith(dbDir.getAbsoluteFile().toPath())) {
+            // e.g. the auxiliary script of createDb
+            name = file.toAbsolutePath().toString();
+        } else {
+            name = getScriptName(file);
+        }
+        scriptTiming = executionReport.startScript(name, type);
+    }
+
+    protected void finishScriptTiming(boolean failed) {
+        if (scriptTiming != null) {
+            scriptTiming.finish(failed);
+            scriptTiming = null;
+        }
+    }
+
+    /**
+     * Writes the report of executed scripts to {@code build/reports/db/<task name>.json} and logs the slowest
+     * scripts and statements.
+     */
+    protected void writeExecutionReport() {
+        if (executionReport.isEmpty()) {
+            return;
+        }
+        File reportFile = new File(getProject().getBuildDir(), "reports/db/" + getName() + ".json");
+        try {
+            executionReport.writeJson(reportFile);
         } catch (IOException e) {
-            throw new GradleException("Exception when executing sql script: " + file.getAbsolutePath(), e);
+            getProject().getLogger().warn(logPrefix + "Unable to write script execution report: " + e);
+            return;
+        }
+        if (slowestReportSize > 0) {
+            getProject().getLogger().warn(logPrefix + executionReport.formatSummary(slowestReportSize));
         }
+        getProject().getLogger().warn(logPrefix + "Script execution report: " + reportFile.getAbsolutePath());
     }
 
-    protected void markScript(String name, boolean init) {
-        Sql sql = getSql();
+    /**
+     * @return true if the statement commits the current transaction implicitly in the current DBMS
+     */
+    protected boolean isImplicitCommit(String sqlCommand) {
+        return (ORACLE_DBMS.equals(dbms) || MYSQL_DBMS.equals(dbms) || HSQL_DBMS.equals(dbms))
+                && DDL_KEYWORDS.contains(getFirstKeyword(sqlCommand));
+    }
+
+    protected void executeStatement(Sql sql, String sqlCommand) {
+        try {
+            long start = System.nanoTime();
+            sql.execute(sqlCommand);
+            if (scriptTiming != null) {
+                scriptTiming.statementExecuted(sqlCommand, System.nanoTime() - start, sql.getUpdateCount());
+            }
+        } catch (SQLException e) {
+            throw new GradleException("Exception when executing SQL: " + sqlCommand, e);
+        }
+    }
+
+    /**
+     * Executes DML statements accumulated in the list as a single JDBC batch and clears the list. The batch is
+     * executed in its own transaction. If it fails, the transaction is rolled back and the statements are executed
+     * one by one to report the exact failed statement.
+     */
+    protected void executeBatch(Sql sql, List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            executeStatement(sql, batch.get(0));
+            batch.clear();
+            return;
+        }
+
+        getProject().getLogger().info("[CubaDbTask] executing batch of " + batch.size() + " statements");
+
+        boolean batchFailed = false;
+        try {
+            Connection connection = sql.getConnection();
+            boolean autoCommit = connection.getAutoCommit();
+            try (Statement statement = connection.createStatement()) {
+                if (autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                for (String sqlCommand : batch) {
+                    statement.addBatch(sqlCommand);
+                }
+                long start = System.nanoTime();
+                int[] updateCounts = statement.executeBatch();
+                if (autoCommit) {
+                    connection.commit();
+                }
+                if (scriptTiming != null) {
+                    scriptTiming.statementExecuted("batch of " + batch.size() + " statements: " + batch.get(0),
+                            System.nanoTime() - start, getRowCount(updateCounts));
+                }
+            } catch (SQLException e) {
+                if (!autoCommit) {
+                    // the batch is a part of an outer transaction, which is rolled back by the caller
+                    throw new GradleException("Exception when executing SQL: " + getFailedStatement(batch, e), e);
+                }
+                getProject().getLogger().info("[CubaDbTask] batch execution failed, executing statements one by one: " + e);
+                connection.rollback();
+                batchFailed = true;
+            } finally {
+                if (autoCommit) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw new GradleException("Exception when executing SQL batch: " + batch.get(0) + " ...", e);
+        }
+
+        if (batchFailed) {
+            for (String sqlCommand : batch) {
+                executeStatement(sql, sqlCommand);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return total number of rows affected by a batch or -1 if the driver does not report it
+     */
+    protected long getRowCount(int[] updateCounts) {
+        long rows = 0;
+        for (int count : updateCounts) {
+            if (count < 0) {
+                return -1;
+            }
+            rows += count;
+        }
+        return rows;
+    }
+
+    protected String getFailedStatement(List<String> batch, SQLException e) {
+        if (e instanceof BatchUpdateException) {
+            int[] updateCounts = ((BatchUpdateException) e).getUpdateCounts();
+            if (updateCounts != null) {
+                for (int i = 0; i < updateCounts.length && i < batch.size(); i++) {
+                    if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                        return batch.get(i);
+                    }
+                }
+                // drivers stopping on the first failure return counts of successful statements only
+                if (updateCounts.length < batch.size()) {
+                    return batch.get(updateCounts.length);
+                }
+            }
+        }
+        return batch.get(0) + " ...";
+    }
+
+    protected boolean isBatchable(String sqlCommand) {
+        String keyword = getFirstKeyword(sqlCommand);
+        return "insert".equals(keyword) || "update".equals(keyword)
+                || "delete".equals(keyword) || "merge".equals(keyword);
+    }
+
+    protected String getFirstKeyword(String sqlCommand) {
+        String[] lines = sqlCommand.split("[\r\n]+");
+        for (String line : lines) {
+            line = line.trim();
+            if (line.startsWith(SQL_COMMENT_PREFIX) || line.isEmpty()) {
+                continue;
+            }
+            int end = 0;
+            while (end < line.length() && Character.isLetter(line.charAt(end))) {
+                end++;
+            }
+            return line.substring(0, end).toLowerCase();
+        }
+        return "";
+    }
+
+    /**
+     * Marks scripts executed before the failure if it is not null. A failure of marking, e.g. due to the lost
+     * connection that failed a script, is added to the original exception as suppressed, and names of the scripts
+     * left unmarked are logged.
+     */
+    protected void markScripts(List<String> names, boolean init, Throwable failure) {
+        if (failure == null) {
+            markScripts(names, init);
+            return;
+        }
         try {
-            sql.executeUpdate("insert into SYS_DB_CHANGELOG (SCRIPT_NAME, IS_INIT) values (?, ?)",
-                    Arrays.asList(name, (init ? 1 : 0)));
+            markScripts(names, init);
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+            getProject().getLogger().error(logPrefix + "Executed scripts are not marked in SYS_DB_CHANGELOG: " + names);
+        }
+    }
+
+    /**
+     * Marks scripts as executed using batch inserts in a single transaction.
+     */
+    protected void markScripts(List<String> names, boolean init) {
+        if (names.isEmpty()) {
+            return;
+        }
+        getProject().getLogger().info("[CubaDbTask] marking " + names.size() + " scripts as executed");
+
+        try {
+            Connection connection = getSql().getConnection();
+            boolean autoCommit = connection.getAutoCommit();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into SYS_DB_CHANGELOG (SCRIPT_NAME, IS_INIT) values (?, ?)")) {
+                if (autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                int count = 0;
+                for (String name : names) {
+                    statement.setString(1, name);
+                    statement.setInt(2, init ? 1 : 0);
+                    statement.addBatch();
+                    if (++count % MARK_SCRIPTS_BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (count % MARK_SCRIPTS_BATCH_SIZE != 0) {
+                    statement.executeBatch();
+                }
+                if (autoCommit) {
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                if (autoCommit) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                if (autoCommit) {
+                    connection.setAutoCommit(true);
+                }
+            }
         } catch (SQLException e) {
-            throw new GradleException("Exception when mark sql script", e);
+            throw new GradleException("Exception when mark sql scripts", e);
         }
     }
 
     protected Sql getSql() {
         if (sqlInstance == null)
             try {
-                sqlInstance = Sql.newInstance(dbUrl, dbUser, dbPassword, driver);
-            } catch (SQLException | ClassNotFoundException e) {
+                // closing of the Sql instance returns the connection to the pool
+                sqlInstance = new Sql(ConnectionPools.getConnection(getProject(), driver, dbUrl, dbUser, dbPassword));
+            } catch (SQLException e) {
                 throw new GradleException("Unable to get SQL instance", e);
             }
         return sqlInstance;
@@ -466,6 +916,60 @@ public abstract class CubaDbTask extends DefaultTask {
         }
     }
 
+    /**
+     * Transaction of a script executed with autocommit turned off. Commits every {@link #commitSize} statements
+     * if the size is set.
+     */
+    protected class ScriptTransaction {
+
+        protected final Connection connection;
+        protected final boolean autoCommit;
+        protected int uncommittedStatements;
+
+        protected ScriptTransaction(Connection connection) {
+            this.connection = connection;
+            try {
+                autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+            } catch (SQLException e) {
+                throw new GradleException("Unable to start transaction", e);
+            }
+        }
+
+        /**
+         * @return true if the transaction should be committed
+         */
+        protected boolean statementExecuted() {
+            uncommittedStatements++;
+            return commitSize > 0 && uncommittedStatements >= commitSize;
+        }
+
+        protected void commit() {
+            try {
+                connection.commit();
+                uncommittedStatements = 0;
+            } catch (SQLException e) {
+                throw new GradleException("Unable to commit transaction", e);
+            }
+        }
+
+        protected void rollback() {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                getProject().getLogger().warn("Unable to rollback transaction: " + e);
+            }
+        }
+
+        protected void close() {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                getProject().getLogger().warn("Unable to restore autocommit mode: " + e);
+            }
+        }
+    }
+
     public static class ScriptFinder {
 
         protected String storeName;
@@ -473,162 +977,79 @@ public abstract class CubaDbTask extends DefaultTask {
         protected String dbmsVersion;
         protected File dbDir;
         protected List<String> extensions;
+        protected ScriptIndex scriptIndex;
         private Project project;
 
         public ScriptFinder(String storeName, String dbmsType, String dbmsVersion, File dbDir, List<String> extensions, Project project) {
+            this(storeName, new ScriptIndex(dbDir, dbmsType, dbmsVersion), extensions, project);
+        }
+
+        /**
+         * Creates a finder serving queries from the given index, which can be shared by several finders.
+         */
+        public ScriptFinder(String storeName, ScriptIndex scriptIndex, List<String> extensions, Project project) {
             this.storeName = storeName;
-            this.dbmsType = dbmsType;
-            this.dbmsVersion = dbmsVersion;
-            this.dbDir = dbDir;
+            this.dbmsType = scriptIndex.getDbmsType();
+            this.dbmsVersion = scriptIndex.getDbmsVersion();
+            this.dbDir = scriptIndex.getDbDir();
             this.extensions = extensions;
+            this.scriptIndex = scriptIndex;
             this.project = project;
         }
 
         public List<String> getModuleDirs() {
-            if (!dbDir.exists()) {
-                return Collections.emptyList();
-            }
-            String[] moduleDirs = dbDir.list();
-            if (moduleDirs == null) {
-                return Collections.emptyList();
-            }
-            List<String> sortedDirs = Arrays.asList(moduleDirs);
-            sortedDirs.sort(Comparator.comparingLong(this::getModuleIndex)
-                    .thenComparing(String::compareTo));
-            return sortedDirs;
+            return scriptIndex.getModuleDirs();
         }
 
-        protected Long getModuleIndex(String moduleDir) {
-            int dashIndex = moduleDir.indexOf('-');
-            if (dashIndex > 1) {
-                try {
-                    return Long.valueOf(moduleDir.substring(0, dashIndex));
-                } catch (NumberFormatException e) {
-                    throw new GradleException(format("Invalid DB scripts directory name: %s", moduleDir));
-                }
-            } else
-                throw new GradleException(format("Invalid DB scripts directory name: %s", moduleDir));
+        public List<File> getUpdateScripts(String oneModuleDir) {
+            return toFiles(getUpdateScriptPaths(oneModuleDir));
+        }
+
+        public List<File> getInitScripts(String oneModuleDir) {
+            return toFiles(getInitScriptPaths(oneModuleDir));
         }
 
         // Copy of com.haulmont.cuba.core.sys.DbUpdaterEngine#getUpdateScripts
-        public List<File> getUpdateScripts(String oneModuleDir) {
-            if (!dbDir.exists()) {
-                return Collections.emptyList();
-            }
+        public List<Path> getUpdateScriptPaths(String oneModuleDir) {
             List<String> moduleDirs = getModuleDirs();
-            List<File> databaseScripts = new ArrayList<>();
+            List<Path> databaseScripts = new ArrayList<>();
             for (String moduleDirName : moduleDirs) {
                 if (StringUtils.isNotBlank(oneModuleDir) && !oneModuleDir.equals(moduleDirName)) {
                     continue;
                 }
-
-                File moduleDir = new File(dbDir, moduleDirName);
-                File initDir = new File(moduleDir, getUpdateDirName());
-                File scriptDir = new File(initDir, dbmsType);
-                if (scriptDir.exists()) {
-                    String[] extensionsArr = extensions.toArray(new String[extensions.size()]);
-                    List<File> list = new ArrayList<>(FileUtils.listFiles(scriptDir, extensionsArr, true));
-                    Map<File, File> file2dir = new HashMap<>();
-                    list.forEach(file -> file2dir.put(file, scriptDir));
-
-                    if (StringUtils.isNotBlank(dbmsVersion)) {
-                        File optScriptDir = new File(initDir, dbmsType + "-" + dbmsVersion);
-                        if (optScriptDir.exists()) {
-                            Map<String, File> filesMap = new HashMap<>();
-                            list.forEach(file -> filesMap.put(
-                                    scriptDir.toPath().relativize(file.toPath()).toString(), file));
-                            List<File> optList = new ArrayList<>(FileUtils.listFiles(optScriptDir, extensionsArr, true));
-                            optList.forEach(file -> file2dir.put(file, optScriptDir));
-
-                            Map<String, File> optFilesMap = new HashMap<>();
-                            optList.forEach(file -> optFilesMap.put(
-                                    optScriptDir.toPath().relativize(file.toPath()).toString(), file));
-
-                            filesMap.putAll(optFilesMap);
-                            list.clear();
-                            list.addAll(filesMap.values());
-                        }
-                    }
-
-                    list.sort((f1, f2) -> {
-                        File f1Parent = f1.getAbsoluteFile().getParentFile();
-                        File f2Parent = f2.getAbsoluteFile().getParentFile();
-                        if (f1Parent.equals(f2Parent)) {
-                            String f1Name = FilenameUtils.getBaseName(f1.getName());
-                            String f2Name = FilenameUtils.getBaseName(f2.getName());
-                            return f1Name.compareTo(f2Name);
-                        }
-                        File dir1 = file2dir.get(f1);
-                        File dir2 = file2dir.get(f2);
-                        Path p1 = dir1.toPath().relativize(f1.toPath());
-                        Path p2 = dir2.toPath().relativize(f2.toPath());
-                        return p1.compareTo(p2);
-                    });
-
-                    databaseScripts.addAll(list);
-                }
+                databaseScripts.addAll(scriptIndex.getUpdateScriptPaths(moduleDirName, getUpdateDirName(), extensions));
             }
-
             return databaseScripts;
         }
 
-        public List<File> getInitScripts(String oneModuleDir) {
-            if (!dbDir.exists()) {
-                logInfo("[CubaDbTask] [getInitScripts] " + dbDir + " doesn't exist");
+        public List<Path> getInitScriptPaths(String oneModuleDir) {
+            if (!scriptIndex.exists()) {
+                logInfo("[CubaDbTask] [getInitScripts] " + (dbDir != null ? dbDir : "db scripts archive") + " doesn't exist");
                 return Collections.emptyList();
             }
             List<String> moduleDirs = getModuleDirs();
-            List<File> files = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
             logInfo("[CubaDbTask] [getInitScripts] modules: [" + StringUtils.join(moduleDirs, ", ") + "]");
             for (String moduleDirName : moduleDirs) {
                 if (StringUtils.isNotBlank(oneModuleDir) && !oneModuleDir.equals(moduleDirName)) {
                     continue;
                 }
-                File moduleDir = new File(dbDir, moduleDirName);
-                File initDir = new File(moduleDir, getInitDirName());
-                File scriptDir = new File(initDir, dbmsType);
-                if (!scriptDir.exists()) {
-                    logInfo("[CubaDbTask] [getInitScripts] " + scriptDir + " doesn't exist");
+                if (!scriptIndex.hasScriptDir(moduleDirName, getInitDirName())) {
+                    logInfo("[CubaDbTask] [getInitScripts] " + moduleDirName + "/" + getInitDirName() + "/"
+                            + dbmsType + " doesn't exist");
                     continue;
                 }
-                FilenameFilter filenameFilter = (dir, name) -> name.endsWith("create-db.sql");
-                File[] scriptFiles = scriptDir.listFiles(filenameFilter);
-                if (scriptFiles == null) {
-                    scriptFiles = new File[]{};
-                }
-                List<File> list = new ArrayList<>(Arrays.asList(scriptFiles));
-                if (StringUtils.isNotBlank(dbmsVersion)) {
-                    File optScriptDir = new File(initDir, dbmsType + "-" + dbmsVersion);
-                    if (optScriptDir.exists()) {
-                        File[] optFiles = optScriptDir.listFiles(filenameFilter);
-                        if (optFiles == null) {
-                            optFiles = new File[]{};
-                        }
-
-                        Map<String, File> filesMap = new HashMap<>();
-                        for (File scriptFile : scriptFiles) {
-                            filesMap.put(scriptDir.toPath().relativize(scriptFile.toPath()).toString(), scriptFile);
-                        }
-
-                        Map<String, File> optFilesMap = new HashMap<>();
-                        for (File optFile : optFiles) {
-                            optFilesMap.put(optScriptDir.toPath().relativize(optFile.toPath()).toString(), optFile);
-                        }
-
-                        filesMap.putAll(optFilesMap);
-                        list.clear();
-                        list.addAll(filesMap.values());
-                    }
-                }
-
-                list.sort(Comparator.comparing(File::getName));
-
+                List<Path> list = scriptIndex.getInitScriptPaths(moduleDirName, getInitDirName(), extensions);
                 logInfo("[CubaDbTask] [getInitScripts] files: " + list);
                 files.addAll(list);
             }
             return files;
         }
 
+        protected List<File> toFiles(List<Path> paths) {
+            return paths.stream().map(Path::toFile).collect(Collectors.toList());
+        }
+
         private void logInfo(String msg) {
             if (project != null) {
                 project.getLogger().info(msg);
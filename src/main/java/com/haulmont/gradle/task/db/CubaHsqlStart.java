@@ -19,9 +19,6 @@ package com.haulmont.gradle.task.db;
 import com.haulmont.gradle.hsql.CubaHSQLDBServer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.tools.ant.taskdefs.Java;
-import org.apache.tools.ant.taskdefs.WaitFor;
-import org.apache.tools.ant.taskdefs.WaitFor.Unit;
-import org.apache.tools.ant.taskdefs.condition.Socket;
 import org.gradle.api.GradleException;
 import org.gradle.api.tasks.TaskAction;
 
@@ -35,8 +32,23 @@ public class CubaHsqlStart extends CubaHsqlTask {
 
     public static final String HSQLDB_SERVER_MAIN = "org.hsqldb.server.Server";
 
+    protected static final long PORT_POLL_INTERVAL_MS = 20;
+
     protected File dbDataDir;
     protected boolean showUi = true;
+    /**
+     * Run the server in the Gradle process instead of a separate JVM. The server is stopped by
+     * {@link CubaHsqlStop} or at the end of the build.
+     */
+    protected boolean inProcess = false;
+    /**
+     * Keep the database in memory, it is lost when the server stops.
+     */
+    protected boolean inMemory = false;
+    protected long startTimeoutMs = 10000;
+
+    // the task may start the server several times in a build, e.g. to restore a snapshot
+    protected boolean stopListenerAdded = false;
 
     public CubaHsqlStart() {
         setGroup("Database");
@@ -46,29 +58,34 @@ public class CubaHsqlStart extends CubaHsqlTask {
     protected void init() {
         super.init();
 
-        if (dbDataDir == null) {
-            File projectDir = getProject().getRootProject().getProjectDir();
-            dbDataDir = new File(projectDir, "deploy/hsqldb");
-        }
+        dbDataDir = resolveDbDataDir();
     }
 
     @TaskAction
     public void startDb() {
         init();
 
+        if (isPortInUse(dbPort)) {
+            throw new GradleException(String.format("HSQL port %s already in use", dbPort));
+        }
+
+        // the working directory of the server process even if the database is in memory
         //noinspection ResultOfMethodCallIgnored
         dbDataDir.mkdirs();
 
-        // check port if already in use
-        Socket socket = new Socket();
-        socket.setPort(dbPort);
-        socket.setServer("localhost");
+        if (inProcess) {
+            getProject().getLogger().info("[CubaHsqlStart] Starting HSQL in the build process");
 
-        if (socket.eval()) {
-            throw new GradleException(String.format("HSQL port %s already in use", dbPort));
+            InProcessHsqlServer.start(driverClasspath, dbPort, dbName, getDbPath(), startTimeoutMs);
+            if (!stopListenerAdded) {
+                // a server left running by the build would hold the port and the database files in the daemon
+                getProject().getGradle().buildFinished(result -> InProcessHsqlServer.stop(dbPort));
+                stopListenerAdded = true;
+            }
+            return;
         }
 
-        if (isShowUi() && !GraphicsEnvironment.isHeadless()) {
+        if (isUiMode()) {
             getProject().getLogger().info("[CubaHsqlStart] Starting HSQL UI");
 
             URL[] classloaderUrls = ((URLClassLoader) CubaHSQLDBServer.class.getClassLoader()).getURLs();
@@ -92,8 +109,10 @@ public class CubaHsqlStart extends CubaHsqlTask {
             java.setSpawn(true);
             java.setDir(dbDataDir);
 
+            // the server creates a file database in a subdirectory of the path
+            String dbPath = inMemory ? "mem:" + dbName : dbDataDir.getAbsolutePath();
             java.createArg()
-                    .setLine("" + dbPort + " \"" + dbDataDir.getAbsolutePath() + "\" \"" + dbName + "\"");
+                    .setLine("" + dbPort + " \"" + dbPath + "\" \"" + dbName + "\"");
 
             java.execute();
         } else {
@@ -108,7 +127,8 @@ public class CubaHsqlStart extends CubaHsqlTask {
             java.setDir(dbDataDir);
 
             java.createArg()
-                    .setLine("--port " + dbPort + " --database.0 file:\"" + dbName + "\" --dbname.0 \"" + dbName + "\"");
+                    .setLine("--port " + dbPort + " --database.0 " + (inMemory ? "mem:" : "file:") + "\"" + dbName
+                            + "\" --dbname.0 \"" + dbName + "\"");
 
             getProject().getLogger().info("[CubaHsqlStart] Starting HSQL process with {}",
                     StringUtils.join(java.getCommandLine().getCommandline(), " "));
@@ -116,21 +136,47 @@ public class CubaHsqlStart extends CubaHsqlTask {
             java.execute();
         }
 
-        Unit UNIT_SECOND = (Unit) Unit.getInstance(Unit.class, "second");
+        waitForServer();
+    }
 
-        WaitFor waitFor = new WaitFor();
-        waitFor.setProject(getProject().getAnt().getProject());
-        waitFor.setMaxWait(10);
-        waitFor.setMaxWaitUnit(UNIT_SECOND);
-        waitFor.setCheckEvery(1);
-        waitFor.setCheckEveryUnit(UNIT_SECOND);
+    /**
+     * @return true if the server is started with {@link CubaHSQLDBServer} UI
+     */
+    public boolean isUiMode() {
+        return !inProcess && showUi && !GraphicsEnvironment.isHeadless();
+    }
 
-        waitFor.addSocket(socket);
-        waitFor.execute();
+    /**
+     * @return path of the database files without extension, the UI server keeps them in a subdirectory named as
+     * the database
+     */
+    public File resolveDbFile() {
+        File dataDir = resolveDbDataDir();
+        if (isUiMode()) {
+            dataDir = new File(dataDir, dbName);
+        }
+        return new File(dataDir, dbName);
+    }
 
-        if (!socket.eval()) {
-            getProject().getLogger().warn("HSQL is not up in 10 seconds");
+    protected String getDbPath() {
+        return inMemory ? "mem:" + dbName : "file:" + new File(dbDataDir, dbName).getAbsolutePath();
+    }
+
+    protected void waitForServer() {
+        long start = System.currentTimeMillis();
+        while (!isPortInUse(dbPort)) {
+            if (System.currentTimeMillis() - start > startTimeoutMs) {
+                getProject().getLogger().warn("HSQL is not up in {} ms", startTimeoutMs);
+                return;
+            }
+            try {
+                Thread.sleep(PORT_POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while waiting for HSQL", e);
+            }
         }
+        getProject().getLogger().info("[CubaHsqlStart] HSQL is up in {} ms", System.currentTimeMillis() - start);
     }
 
     public boolean isShowUi() {
@@ -141,6 +187,30 @@ public class CubaHsqlStart extends CubaHsqlTask {
         this.showUi = showUi;
     }
 
+    public boolean isInProcess() {
+        return inProcess;
+    }
+
+    public void setInProcess(boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    public long getStartTimeoutMs() {
+        return startTimeoutMs;
+    }
+
+    public void setStartTimeoutMs(long startTimeoutMs) {
+        this.startTimeoutMs = startTimeoutMs;
+    }
+
     public File getDbDataDir() {
         return dbDataDir;
     }
@@ -148,4 +218,14 @@ public class CubaHsqlStart extends CubaHsqlTask {
     public void setDbDataDir(File dbDataDir) {
         this.dbDataDir = dbDataDir;
     }
+
+    /**
+     * @return directory of database files, {@code deploy/hsqldb} of the root project if it is not set
+     */
+    public File resolveDbDataDir() {
+        if (dbDataDir != null) {
+            return dbDataDir;
+        }
+        return new File(getProject().getRootProject().getProjectDir(), "deploy/hsqldb");
+    }
 }
\ No newline at end of file
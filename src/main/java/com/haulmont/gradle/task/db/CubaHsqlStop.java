@@ -27,6 +27,11 @@ public class CubaHsqlStop extends CubaHsqlTask {
 
     @TaskAction
     public void stopDb() {
+        if (InProcessHsqlServer.stop(getDbPort())) {
+            getLogger().info("[CubaHsqlStop] stopped HSQLDB server running in the build process");
+            return;
+        }
+
         init();
 
         try {
@@ -19,6 +19,9 @@ package com.haulmont.gradle.task.db;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.artifacts.Configuration;
 
+import java.io.IOException;
+import java.net.Socket;
+
 public abstract class CubaHsqlTask extends DefaultTask {
     protected String driverClasspath;
     protected String dbName = "cubadb";
@@ -32,6 +35,17 @@ public abstract class CubaHsqlTask extends DefaultTask {
         getLogger().info("[CubaHsqlTask] driverClasspath: " + driverClasspath);
     }
 
+    /**
+     * @return true if a server accepts connections on the local port
+     */
+    public static boolean isPortInUse(int port) {
+        try (Socket ignored = new Socket("localhost", port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public String getDriverClasspath() {
         return driverClasspath;
     }
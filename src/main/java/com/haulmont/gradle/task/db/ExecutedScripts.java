@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Index of scripts registered in SYS_DB_CHANGELOG.
+ * <p>
+ * Scripts are compared ignoring the numeric prefix of the module directory, e.g. {@code 10-cuba/update/...} and
+ * {@code 20-cuba/update/...} are the same script, because the prefix depends on the set of app components.
+ */
+public class ExecutedScripts {
+
+    protected static final int MODULE_PREFIX_LENGTH = 3;
+
+    protected final Set<String> names = new HashSet<>();
+    protected final Set<String> fileNames = new HashSet<>();
+
+    public ExecutedScripts(Collection<String> scriptNames) {
+        for (String scriptName : scriptNames) {
+            if (scriptName.length() > MODULE_PREFIX_LENGTH) {
+                names.add(scriptName.substring(MODULE_PREFIX_LENGTH));
+            }
+            fileNames.add(scriptName.substring(scriptName.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * @param scriptName script path relative to the db directory
+     * @return true if the script is registered in the changelog, ignoring the module prefix
+     */
+    public boolean contains(String scriptName) {
+        return scriptName.length() > MODULE_PREFIX_LENGTH
+                && names.contains(scriptName.substring(MODULE_PREFIX_LENGTH));
+    }
+
+    /**
+     * @param fileName script file name without directories
+     * @return true if a script with the given file name is registered in the changelog, ignoring case
+     */
+    public boolean containsFileName(String fileName) {
+        return fileNames.contains(fileName.toLowerCase(Locale.ROOT));
+    }
+}
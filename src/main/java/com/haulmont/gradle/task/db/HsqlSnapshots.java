@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Snapshots of HSQL database files keyed by the fingerprint of the scripts the database is created from.
+ * <p>
+ * A snapshot contains files of a checkpointed database, e.g. {@code cubadb.script} and {@code cubadb.properties},
+ * stored under a name independent of the database name. The database must not be open while a snapshot is restored.
+ */
+public class HsqlSnapshots {
+
+    protected static final List<String> DB_FILE_EXTENSIONS = Arrays.asList("properties", "script", "data", "backup", "lobs");
+    protected static final List<String> TRANSIENT_FILE_EXTENSIONS = Arrays.asList("log", "lck");
+    protected static final String SNAPSHOT_DB_NAME = "db";
+    protected static final int MAX_SNAPSHOTS = 5;
+
+    protected final File snapshotsDir;
+
+    public HsqlSnapshots(File snapshotsDir) {
+        this.snapshotsDir = snapshotsDir;
+    }
+
+    public boolean exists(String fingerprint) {
+        return new File(getSnapshotDir(fingerprint), SNAPSHOT_DB_NAME + ".script").exists();
+    }
+
+    /**
+     * Saves files of the database. The database must be checkpointed, so that its state is fully contained in the
+     * files.
+     *
+     * @param dbFile path of the database files without extension, e.g. {@code deploy/hsqldb/cubadb}
+     * @return false if there are no database files, e.g. the server keeps them at another path
+     */
+    public boolean save(String fingerprint, File dbFile) throws IOException {
+        File snapshotDir = getSnapshotDir(fingerprint);
+        File tempDir = new File(snapshotsDir, fingerprint + ".tmp");
+        if (!getDbFile(dbFile, "script").exists()) {
+            return false;
+        }
+
+        FileUtils.deleteDirectory(tempDir);
+        for (String extension : DB_FILE_EXTENSIONS) {
+            File file = getDbFile(dbFile, extension);
+            if (file.exists()) {
+                copy(file, new File(tempDir, SNAPSHOT_DB_NAME + "." + extension));
+            }
+        }
+        FileUtils.deleteDirectory(snapshotDir);
+        if (!tempDir.renameTo(snapshotDir)) {
+            throw new IOException("Unable to rename " + tempDir + " to " + snapshotDir);
+        }
+        deleteOldSnapshots();
+        return true;
+    }
+
+    /**
+     * Replaces files of the database with the snapshot.
+     *
+     * @param dbFile path of the database files without extension, e.g. {@code deploy/hsqldb/cubadb}
+     */
+    public void restore(String fingerprint, File dbFile) throws IOException {
+        File snapshotDir = getSnapshotDir(fingerprint);
+        for (String extension : DB_FILE_EXTENSIONS) {
+            FileUtils.deleteQuietly(getDbFile(dbFile, extension));
+        }
+        for (String extension : TRANSIENT_FILE_EXTENSIONS) {
+            FileUtils.deleteQuietly(getDbFile(dbFile, extension));
+        }
+        FileUtils.deleteDirectory(getDbFile(dbFile, "tmp"));
+
+        for (String extension : DB_FILE_EXTENSIONS) {
+            File file = new File(snapshotDir, SNAPSHOT_DB_NAME + "." + extension);
+            if (file.exists()) {
+                copy(file, getDbFile(dbFile, extension));
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        snapshotDir.setLastModified(System.currentTimeMillis());
+    }
+
+    protected File getDbFile(File dbFile, String extension) {
+        return new File(dbFile.getParentFile(), dbFile.getName() + "." + extension);
+    }
+
+    protected void copy(File source, File target) throws IOException {
+        if (source.isDirectory()) {
+            FileUtils.copyDirectory(source, target);
+        } else {
+            FileUtils.copyFile(source, target);
+        }
+    }
+
+    protected void deleteOldSnapshots() throws IOException {
+        File[] snapshots = snapshotsDir.listFiles(File::isDirectory);
+        if (snapshots == null || snapshots.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+        Arrays.sort(snapshots, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_SNAPSHOTS; i < snapshots.length; i++) {
+            FileUtils.deleteDirectory(snapshots[i]);
+        }
+    }
+
+    protected File getSnapshotDir(String fingerprint) {
+        return new File(snapshotsDir, fingerprint);
+    }
+}
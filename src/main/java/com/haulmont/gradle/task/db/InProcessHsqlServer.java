@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.gradle.api.GradleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HSQL server running in the Gradle process.
+ * <p>
+ * The server classes are loaded from the JDBC driver classpath and invoked reflectively. Started servers are
+ * registered by port, so that they can be stopped by another task of the build.
+ */
+public class InProcessHsqlServer {
+
+    protected static final String SERVER_CLASS = "org.hsqldb.server.Server";
+    protected static final int SERVER_STATE_ONLINE = 1;
+    protected static final int SERVER_STATE_SHUTDOWN = 16;
+    protected static final long POLL_INTERVAL_MS = 5;
+
+    private static final Logger log = LoggerFactory.getLogger(InProcessHsqlServer.class);
+
+    private static final Map<Integer, InProcessHsqlServer> servers = new HashMap<>();
+
+    protected final int port;
+    protected final URLClassLoader classLoader;
+    protected final Object server;
+
+    protected InProcessHsqlServer(int port, URLClassLoader classLoader, Object server) {
+        this.port = port;
+        this.classLoader = classLoader;
+        this.server = server;
+    }
+
+    /**
+     * Starts the server and waits until it accepts connections.
+     *
+     * @param driverClasspath classpath containing HSQLDB
+     * @param dbPath          database path, e.g. {@code file:/path/to/cubadb} or {@code mem:cubadb}
+     * @param timeoutMs       maximum time to wait for the server
+     */
+    public static synchronized InProcessHsqlServer start(String driverClasspath, int port, String dbName,
+                                                         String dbPath, long timeoutMs) {
+        InProcessHsqlServer existing = servers.remove(port);
+        if (existing != null) {
+            // the server stops itself when its database is shut down by SQL
+            existing.stop();
+        }
+
+        URLClassLoader classLoader = createClassLoader(driverClasspath);
+        try {
+            Class<?> serverClass = classLoader.loadClass(SERVER_CLASS);
+            Object server = serverClass.getConstructor().newInstance();
+            serverClass.getMethod("setPort", int.class).invoke(server, port);
+            serverClass.getMethod("setDatabaseName", int.class, String.class).invoke(server, 0, dbName);
+            serverClass.getMethod("setDatabasePath", int.class, String.class).invoke(server, 0, dbPath);
+            serverClass.getMethod("setNoSystemExit", boolean.class).invoke(server, true);
+            serverClass.getMethod("setSilent", boolean.class).invoke(server, true);
+            serverClass.getMethod("setLogWriter", PrintWriter.class).invoke(server, (Object) null);
+
+            InProcessHsqlServer hsqlServer = new InProcessHsqlServer(port, classLoader, server);
+            log.info("[InProcessHsqlServer] starting server on port {} for {}", port, dbPath);
+            serverClass.getMethod("start").invoke(server);
+            hsqlServer.waitForState(SERVER_STATE_ONLINE, timeoutMs);
+
+            servers.put(port, hsqlServer);
+            return hsqlServer;
+        } catch (ReflectiveOperationException e) {
+            closeQuietly(classLoader);
+            Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+            throw new GradleException("Unable to start HSQL server on port " + port, cause);
+        } catch (RuntimeException e) {
+            closeQuietly(classLoader);
+            throw e;
+        }
+    }
+
+    /**
+     * Shuts down the databases and stops the server started on the port.
+     *
+     * @return false if there is no server started by this process on the port
+     */
+    public static synchronized boolean stop(int port) {
+        InProcessHsqlServer server = servers.remove(port);
+        if (server == null) {
+            return false;
+        }
+        server.stop();
+        return true;
+    }
+
+    public static synchronized void stopAll() {
+        List<Integer> ports = new ArrayList<>(servers.keySet());
+        for (Integer port : ports) {
+            stop(port);
+        }
+    }
+
+    public static synchronized boolean isRunning(int port) {
+        InProcessHsqlServer server = servers.get(port);
+        return server != null && server.getState() == SERVER_STATE_ONLINE;
+    }
+
+    protected void stop() {
+        try {
+            if (getState() != SERVER_STATE_SHUTDOWN) {
+                log.info("[InProcessHsqlServer] stopping server on port {}", port);
+                server.getClass().getMethod("shutdown").invoke(server);
+                waitForState(SERVER_STATE_SHUTDOWN, 10000);
+            }
+        } catch (ReflectiveOperationException e) {
+            log.warn("[InProcessHsqlServer] error stopping server on port {}: {}", port, e.toString());
+        } finally {
+            closeQuietly(classLoader);
+        }
+    }
+
+    protected int getState() {
+        try {
+            return (Integer) server.getClass().getMethod("getState").invoke(server);
+        } catch (ReflectiveOperationException e) {
+            throw new GradleException("Unable to get state of HSQL server", e);
+        }
+    }
+
+    protected void waitForState(int state, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        int currentState;
+        while ((currentState = getState()) != state) {
+            if (currentState == SERVER_STATE_SHUTDOWN) {
+                throw new GradleException("HSQL server on port " + port + " is stopped", getServerError());
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new GradleException("HSQL server on port " + port + " has not reached state " + state
+                        + " in " + timeoutMs + " ms");
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while waiting for HSQL server", e);
+            }
+        }
+    }
+
+    protected Throwable getServerError() {
+        try {
+            return (Throwable) server.getClass().getMethod("getServerError").invoke(server);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    protected static URLClassLoader createClassLoader(String driverClasspath) {
+        List<URL> urls = new ArrayList<>();
+        for (String path : driverClasspath.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                try {
+                    urls.add(new File(path).toURI().toURL());
+                } catch (MalformedURLException e) {
+                    throw new GradleException("Invalid classpath entry: " + path, e);
+                }
+            }
+        }
+        // HSQLDB depends only on the JDK, the platform class loader provides java.sql in Java 9+
+        return new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    protected static void closeQuietly(URLClassLoader classLoader) {
+        try {
+            classLoader.close();
+        } catch (IOException e) {
+            log.debug("[InProcessHsqlServer] unable to close class loader: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import com.haulmont.gradle.utils.HashUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Names of PostgreSQL template databases keyed by the fingerprint of the scripts the database is created from.
+ * <p>
+ * A name is {@code tpl_<dbName>_<hash of dbName>_<fingerprint>}, the database name is truncated to fit the
+ * identifier length limit of 63 bytes, and the hash keeps templates of databases with a common long prefix apart.
+ */
+public class PostgresTemplates {
+
+    protected static final String TEMPLATE_PREFIX = "tpl_";
+    protected static final int DB_NAME_LENGTH = 32;
+    protected static final int DB_NAME_HASH_LENGTH = 8;
+    protected static final int FINGERPRINT_LENGTH = 16;
+
+    /**
+     * @return prefix of all template names of the database
+     */
+    public static String getTemplatePrefix(String dbName) {
+        return TEMPLATE_PREFIX + StringUtils.left(dbName, DB_NAME_LENGTH) + "_"
+                + HashUtils.sha1(dbName).substring(0, DB_NAME_HASH_LENGTH) + "_";
+    }
+
+    public static String getTemplateName(String dbName, String fingerprint) {
+        return getTemplatePrefix(dbName) + fingerprint.substring(0, FINGERPRINT_LENGTH);
+    }
+
+    /**
+     * @return templates of the database among the given databases
+     */
+    public static List<String> getTemplates(Collection<String> databases, String dbName) {
+        Pattern templatePattern = Pattern.compile(Pattern.quote(getTemplatePrefix(dbName)) + "[0-9a-f]{" + FINGERPRINT_LENGTH + "}");
+        return databases.stream()
+                .filter(name -> templatePattern.matcher(name).matches())
+                .collect(Collectors.toList());
+    }
+}
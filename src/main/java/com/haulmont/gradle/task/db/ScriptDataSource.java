@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data source of a groovy upgrade script. Connections are borrowed from a shared pool and the ones left open by the
+ * script are returned to the pool by {@link #close()}, so a leaking script does not exhaust the pool.
+ */
+public class ScriptDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ScriptDataSource.class);
+
+    protected final String scriptName;
+    protected final ConnectionSource connectionSource;
+    protected final List<Connection> connections = new ArrayList<>();
+
+    protected PrintWriter logWriter;
+    protected int loginTimeout;
+
+    public ScriptDataSource(String scriptName, ConnectionSource connectionSource) {
+        this.scriptName = scriptName;
+        this.connectionSource = connectionSource;
+    }
+
+    @Override
+    public synchronized Connection getConnection() throws SQLException {
+        connections.removeIf(ScriptDataSource::isClosed);
+        Connection connection = connectionSource.getConnection();
+        connections.add(connection);
+        return connection;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections of upgrade scripts use the credentials of the task");
+    }
+
+    /**
+     * Returns connections left open by the script to the pool.
+     */
+    @Override
+    public synchronized void close() {
+        int leaked = 0;
+        for (Connection connection : connections) {
+            if (!isClosed(connection)) {
+                leaked++;
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.debug("[ScriptDataSource] unable to close connection of " + scriptName, e);
+                }
+            }
+        }
+        connections.clear();
+        if (leaked > 0) {
+            log.warn("[ScriptDataSource] {} connection(s) left open by {} are closed", leaked, scriptName);
+        }
+    }
+
+    protected static boolean isClosed(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Borrows a connection of the pool, e.g. {@link ConnectionPools#getConnection}.
+     */
+    public interface ConnectionSource {
+        Connection getConnection() throws SQLException;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import groovy.json.JsonOutput;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Elapsed time and affected rows of executed scripts and their statements.
+ * <p>
+ * All scripts are kept in the order of execution, statements only while they are among the slowest ones, so the
+ * memory used by the report does not depend on the size of the scripts.
+ */
+public class ScriptExecutionReport {
+
+    protected static final int MAX_SQL_LENGTH = 500;
+
+    protected static final Comparator<ScriptTiming> SCRIPTS_BY_DURATION =
+            Comparator.comparingLong(ScriptTiming::getDurationNanos).reversed();
+    protected static final Comparator<StatementTiming> STATEMENTS_BY_DURATION =
+            Comparator.comparingLong(StatementTiming::getDurationNanos).reversed();
+
+    protected final int maxStatements;
+    protected final List<ScriptTiming> scripts = new ArrayList<>();
+    // the fastest of the kept statements is at the head
+    protected final PriorityQueue<StatementTiming> statements = new PriorityQueue<>(STATEMENTS_BY_DURATION.reversed());
+
+    /**
+     * @param maxStatements number of the slowest statements kept in the report
+     */
+    public ScriptExecutionReport(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    public ScriptTiming startScript(String name, String type) {
+        ScriptTiming script = new ScriptTiming(name, type);
+        scripts.add(script);
+        return script;
+    }
+
+    public boolean isEmpty() {
+        return scripts.isEmpty();
+    }
+
+    public List<ScriptTiming> getScripts() {
+        return scripts;
+    }
+
+    public List<ScriptTiming> getSlowestScripts(int count) {
+        return scripts.stream()
+                .sorted(SCRIPTS_BY_DURATION)
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    public List<StatementTiming> getSlowestStatements(int count) {
+        return statements.stream()
+                .sorted(STATEMENTS_BY_DURATION)
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return total time of the scripts in milliseconds
+     */
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(scripts.stream().mapToLong(ScriptTiming::getDurationNanos).sum());
+    }
+
+    protected void addStatement(StatementTiming statement) {
+        if (maxStatements <= 0) {
+            return;
+        }
+        if (statements.size() < maxStatements) {
+            statements.add(statement);
+        } else if (statements.peek().getDurationNanos() < statement.getDurationNanos()) {
+            statements.poll();
+            statements.add(statement);
+        }
+    }
+
+    /**
+     * Writes scripts and statements sorted by duration, the slowest first.
+     */
+    public void writeJson(File file) throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("totalMs", getTotalMillis());
+        json.put("scripts", scripts.stream()
+                .sorted(SCRIPTS_BY_DURATION)
+                .map(ScriptTiming::toJson)
+                .collect(Collectors.toList()));
+        json.put("slowestStatements", getSlowestStatements(maxStatements).stream()
+                .map(StatementTiming::toJson)
+                .collect(Collectors.toList()));
+        FileUtils.writeStringToFile(file, JsonOutput.prettyPrint(JsonOutput.toJson(json)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return lines describing the slowest scripts and statements
+     */
+    public String formatSummary(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Executed %d scripts in %d ms, the slowest scripts:", scripts.size(), getTotalMillis()));
+        for (ScriptTiming script : getSlowestScripts(count)) {
+            sb.append(String.format("%n\t%8d ms %s%s", script.getDurationMillis(), script.getName(),
+                    script.getRows() >= 0 ? " (" + script.getRows() + " rows)" : ""));
+        }
+        List<StatementTiming> slowestStatements = getSlowestStatements(count);
+        if (!slowestStatements.isEmpty()) {
+            sb.append(String.format("%nThe slowest statements:"));
+            for (StatementTiming statement : slowestStatements) {
+                sb.append(String.format("%n\t%8d ms %s: %s", statement.getDurationMillis(), statement.getScript(),
+                        StringUtils.abbreviate(StringUtils.normalizeSpace(statement.getSql()), 100)));
+            }
+        }
+        return sb.toString();
+    }
+
+    public class ScriptTiming {
+
+        protected final String name;
+        protected final String type;
+        protected final long startNanos = System.nanoTime();
+        protected long durationNanos;
+        protected int statementCount;
+        protected long rows = -1;
+        protected boolean failed;
+
+        protected ScriptTiming(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * @param rows number of affected rows or -1 if it is unknown
+         */
+        public void statementExecuted(String sql, long durationNanos, long rows) {
+            statementCount++;
+            addRows(rows);
+            addStatement(new StatementTiming(name, StringUtils.abbreviate(sql.trim(), MAX_SQL_LENGTH), durationNanos, rows));
+        }
+
+        public void addRows(long rows) {
+            if (rows >= 0) {
+                this.rows = Math.max(this.rows, 0) + rows;
+            }
+        }
+
+        public void finish(boolean failed) {
+            this.durationNanos = System.nanoTime() - startNanos;
+            this.failed = failed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        protected Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("name", name);
+            json.put("type", type);
+            json.put("durationMs", getDurationMillis());
+            json.put("statements", statementCount);
+            json.put("rows", rows);
+            json.put("failed", failed);
+            return json;
+        }
+    }
+
+    public static class StatementTiming {
+
+        protected final String script;
+        protected final String sql;
+        protected final long durationNanos;
+        protected final long rows;
+
+        public StatementTiming(String script, String sql, long durationNanos, long rows) {
+            this.script = script;
+            this.sql = sql;
+            this.durationNanos = durationNanos;
+            this.rows = rows;
+        }
+
+        public String getScript() {
+            return script;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        protected Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("script", script);
+            json.put("durationMs", getDurationMillis());
+            json.put("rows", rows);
+            json.put("sql", sql);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.gradle.api.GradleException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * In-memory index of database scripts for one DBMS type and version.
+ * <p>
+ * The index is built by a single walk over the db directory, which visits only {@code <dbms>} and
+ * {@code <dbms>-<version>} script directories, e.g. {@code 10-cuba/update/postgres}. Lists of scripts are sorted
+ * and merged with the version specific directory once and then served from memory.
+ * <p>
+ * Instead of a directory, the index can read scripts directly from one or more archives with the layout of the db
+ * directory, e.g. produced by the {@code dbScriptsArchive} task. Scripts of later archives replace scripts with the
+ * same path from earlier ones, as if the archives were extracted into one directory.
+ */
+public class ScriptIndex implements Closeable {
+
+    protected static final int DBMS_DIR_DEPTH = 3;
+    protected static final String INIT_SCRIPT_SUFFIX = "create-db.";
+
+    protected final File dbDir;
+    protected final List<Path> roots;
+    protected final String dbmsType;
+    protected final String dbmsVersion;
+
+    protected final List<FileSystem> archiveFileSystems = new ArrayList<>();
+
+    protected List<String> moduleDirs;
+    // module dir -> scripts dir, e.g. update_store2 -> dbms dir -> scripts by path relative to the dbms dir
+    protected Map<String, Map<String, Map<String, Map<String, Script>>>> scripts;
+
+    protected final Map<String, List<Path>> queries = new HashMap<>();
+
+    public ScriptIndex(File dbDir, String dbmsType, String dbmsVersion) {
+        this.dbDir = dbDir;
+        this.roots = Collections.singletonList(dbDir.toPath());
+        this.dbmsType = dbmsType;
+        this.dbmsVersion = dbmsVersion;
+    }
+
+    protected ScriptIndex(List<Path> roots, String dbmsType, String dbmsVersion) {
+        this.dbDir = null;
+        this.roots = roots;
+        this.dbmsType = dbmsType;
+        this.dbmsVersion = dbmsVersion;
+    }
+
+    /**
+     * Creates an index of scripts contained in zip archives. The archives stay open until the index is closed.
+     */
+    public static ScriptIndex forArchives(List<File> archives, String dbmsType, String dbmsVersion) {
+        List<FileSystem> fileSystems = new ArrayList<>();
+        List<Path> roots = new ArrayList<>();
+        try {
+            for (File archive : archives) {
+                FileSystem fileSystem = FileSystems.newFileSystem(archive.toPath(), (ClassLoader) null);
+                fileSystems.add(fileSystem);
+                roots.add(fileSystem.getPath("/"));
+            }
+        } catch (IOException e) {
+            fileSystems.forEach(IOUtils::closeQuietly);
+            throw new UncheckedIOException("Unable to open db scripts archive", e);
+        }
+        ScriptIndex index = new ScriptIndex(roots, dbmsType, dbmsVersion);
+        index.archiveFileSystems.addAll(fileSystems);
+        return index;
+    }
+
+    /**
+     * @return the db directory or null if scripts are read from archives
+     */
+    public File getDbDir() {
+        return dbDir;
+    }
+
+    public String getDbmsType() {
+        return dbmsType;
+    }
+
+    public String getDbmsVersion() {
+        return dbmsVersion;
+    }
+
+    public boolean exists() {
+        return roots.stream().anyMatch(Files::isDirectory);
+    }
+
+    /**
+     * @return module directories ordered by their numeric prefix
+     */
+    public List<String> getModuleDirs() {
+        build();
+        return new ArrayList<>(moduleDirs);
+    }
+
+    /**
+     * @return true if the module contains the scripts directory for the DBMS type, e.g. {@code init/postgres}
+     */
+    public boolean hasScriptDir(String moduleDir, String scriptsDirName) {
+        build();
+        return getDbmsDirs(moduleDir, scriptsDirName).containsKey(dbmsType);
+    }
+
+    /**
+     * Returns update scripts of the module with the given extensions, including subdirectories. Scripts from the
+     * version specific directory replace scripts with the same relative path.
+     */
+    public List<File> getUpdateScripts(String moduleDir, String scriptsDirName, List<String> extensions) {
+        return toFiles(getUpdateScriptPaths(moduleDir, scriptsDirName, extensions));
+    }
+
+    /**
+     * Returns init scripts of the module: {@code create-db.sql} files and {@code create-db.<extension>} files with
+     * the given extensions, excluding subdirectories. Scripts from the version specific directory replace scripts
+     * with the same name.
+     */
+    public List<File> getInitScripts(String moduleDir, String scriptsDirName, List<String> extensions) {
+        return toFiles(getInitScriptPaths(moduleDir, scriptsDirName, extensions));
+    }
+
+    /**
+     * Same as {@link #getUpdateScripts(String, String, List)}, but also works for scripts in archives.
+     */
+    public synchronized List<Path> getUpdateScriptPaths(String moduleDir, String scriptsDirName, List<String> extensions) {
+        String key = "update|" + moduleDir + "|" + scriptsDirName + "|" + extensions;
+        List<Path> result = queries.get(key);
+        if (result == null) {
+            build();
+            result = findUpdateScripts(moduleDir, scriptsDirName, extensions);
+            queries.put(key, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Same as {@link #getInitScripts(String, String, List)}, but also works for scripts in archives.
+     */
+    public synchronized List<Path> getInitScriptPaths(String moduleDir, String scriptsDirName, List<String> extensions) {
+        String key = "init|" + moduleDir + "|" + scriptsDirName + "|" + extensions;
+        List<Path> result = queries.get(key);
+        if (result == null) {
+            build();
+            result = findInitScripts(moduleDir, scriptsDirName, extensions);
+            queries.put(key, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * @return path of the script relative to the db directory or the archive root, with '/' separators
+     */
+    public String getScriptName(Path script) {
+        for (Path root : roots) {
+            if (root.getFileSystem().equals(script.getFileSystem()) && script.startsWith(root)) {
+                return root.relativize(script).toString().replace('\\', '/');
+            }
+        }
+        throw new IllegalArgumentException("Script " + script + " is not in " + roots);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileSystem fileSystem : archiveFileSystems) {
+            fileSystem.close();
+        }
+        archiveFileSystems.clear();
+    }
+
+    protected List<Path> findUpdateScripts(String moduleDir, String scriptsDirName, List<String> extensions) {
+        Map<String, Map<String, Script>> dbmsDirs = getDbmsDirs(moduleDir, scriptsDirName);
+        Map<String, Script> dbmsScripts = dbmsDirs.get(dbmsType);
+        if (dbmsScripts == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Script> scriptsMap = new HashMap<>();
+        addScripts(scriptsMap, dbmsScripts, script -> hasExtension(script.relativePath, extensions));
+
+        Map<String, Script> optScripts = getVersionScripts(dbmsDirs);
+        if (optScripts != null) {
+            addScripts(scriptsMap, optScripts, script -> hasExtension(script.relativePath, extensions));
+        }
+
+        List<Script> list = new ArrayList<>(scriptsMap.values());
+        list.sort((s1, s2) -> {
+            if (s1.dbmsDir.equals(s2.dbmsDir) && Objects.equals(s1.getRelativeParent(), s2.getRelativeParent())) {
+                String s1Name = FilenameUtils.getBaseName(s1.path.getFileName().toString());
+                String s2Name = FilenameUtils.getBaseName(s2.path.getFileName().toString());
+                return s1Name.compareTo(s2Name);
+            }
+            return s1.relativePath.compareTo(s2.relativePath);
+        });
+        return list.stream().map(script -> script.path).collect(Collectors.toList());
+    }
+
+    protected List<Path> findInitScripts(String moduleDir, String scriptsDirName, List<String> extensions) {
+        Map<String, Map<String, Script>> dbmsDirs = getDbmsDirs(moduleDir, scriptsDirName);
+        Map<String, Script> dbmsScripts = dbmsDirs.get(dbmsType);
+        if (dbmsScripts == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Script> scriptsMap = new HashMap<>();
+        addScripts(scriptsMap, dbmsScripts, script -> isInitScript(script.relativePath, extensions));
+
+        Map<String, Script> optScripts = getVersionScripts(dbmsDirs);
+        if (optScripts != null) {
+            addScripts(scriptsMap, optScripts, script -> isInitScript(script.relativePath, extensions));
+        }
+
+        return scriptsMap.values().stream()
+                .map(script -> script.path)
+                .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                .collect(Collectors.toList());
+    }
+
+    protected Map<String, Script> getVersionScripts(Map<String, Map<String, Script>> dbmsDirs) {
+        return StringUtils.isNotBlank(dbmsVersion) ? dbmsDirs.get(dbmsType + "-" + dbmsVersion) : null;
+    }
+
+    protected void addScripts(Map<String, Script> scriptsMap, Map<String, Script> dbmsScripts, Predicate<Script> filter) {
+        for (Map.Entry<String, Script> entry : dbmsScripts.entrySet()) {
+            if (filter.test(entry.getValue())) {
+                scriptsMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * SQL init scripts are found regardless of the extensions, as before data scripts were supported, data init
+     * scripts only with their extensions.
+     */
+    protected boolean isInitScript(Path relativePath, List<String> extensions) {
+        if (relativePath.getNameCount() != 1) {
+            return false;
+        }
+        String name = relativePath.toString();
+        return name.endsWith(INIT_SCRIPT_SUFFIX + "sql")
+                || extensions.stream().anyMatch(extension -> name.endsWith(INIT_SCRIPT_SUFFIX + extension));
+    }
+
+    protected boolean hasExtension(Path path, List<String> extensions) {
+        String name = path.getFileName().toString();
+        for (String extension : extensions) {
+            if (name.endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected Map<String, Map<String, Script>> getDbmsDirs(String moduleDir, String scriptsDirName) {
+        return scripts.getOrDefault(moduleDir, Collections.emptyMap())
+                .getOrDefault(scriptsDirName, Collections.emptyMap());
+    }
+
+    protected List<File> toFiles(List<Path> paths) {
+        return paths.stream().map(Path::toFile).collect(Collectors.toList());
+    }
+
+    protected synchronized void build() {
+        if (scripts != null) {
+            return;
+        }
+        Set<String> dirs = new HashSet<>();
+        Map<String, Map<String, Map<String, Map<String, Script>>>> index = new HashMap<>();
+        String versionDirName = StringUtils.isNotBlank(dbmsVersion) ? dbmsType + "-" + dbmsVersion : null;
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                    stream.forEach(path -> dirs.add(getName(root.relativize(path))));
+                }
+                Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (dir.equals(root)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        Path relativePath = root.relativize(dir);
+                        if (relativePath.getNameCount() == DBMS_DIR_DEPTH) {
+                            String dbmsDirName = getName(relativePath.getName(2));
+                            if (!dbmsDirName.equals(dbmsType) && !dbmsDirName.equals(versionDirName)) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            index.computeIfAbsent(getName(relativePath.getName(0)), k -> new HashMap<>())
+                                    .computeIfAbsent(getName(relativePath.getName(1)), k -> new HashMap<>())
+                                    .computeIfAbsent(dbmsDirName, k -> new HashMap<>());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        Path relativePath = root.relativize(file);
+                        if (attrs.isRegularFile() && relativePath.getNameCount() > DBMS_DIR_DEPTH) {
+                            String dbmsDirName = getName(relativePath.getName(2));
+                            Path scriptPath = relativePath.subpath(DBMS_DIR_DEPTH, relativePath.getNameCount());
+                            index.get(getName(relativePath.getName(0)))
+                                    .get(getName(relativePath.getName(1)))
+                                    .get(dbmsDirName)
+                                    .put(scriptPath.toString(), new Script(file, scriptPath, dbmsDirName));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to list db scripts in " + root.toUri(), e);
+            }
+        }
+
+        List<String> sortedDirs = new ArrayList<>(dirs);
+        sortedDirs.sort(Comparator.comparingLong(this::getModuleIndex)
+                .thenComparing(String::compareTo));
+
+        moduleDirs = sortedDirs;
+        scripts = index;
+    }
+
+    protected String getName(Path path) {
+        String name = path.toString();
+        // directory entries of zip archives end with a slash
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    protected long getModuleIndex(String moduleDir) {
+        int dashIndex = moduleDir.indexOf('-');
+        if (dashIndex > 1) {
+            try {
+                return Long.parseLong(moduleDir.substring(0, dashIndex));
+            } catch (NumberFormatException e) {
+                throw new GradleException(format("Invalid DB scripts directory name: %s", moduleDir));
+            }
+        } else
+            throw new GradleException(format("Invalid DB scripts directory name: %s", moduleDir));
+    }
+
+    protected static class Script {
+
+        protected final Path path;
+        protected final Path relativePath;
+        protected final String dbmsDir;
+
+        protected Script(Path path, Path relativePath, String dbmsDir) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.dbmsDir = dbmsDir;
+        }
+
+        protected String getRelativeParent() {
+            Path parent = relativePath.getParent();
+            return parent != null ? parent.toString() : null;
+        }
+    }
+}
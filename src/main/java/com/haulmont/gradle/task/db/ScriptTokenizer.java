@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits an SQL script into statements reading it from a {@link Reader} in a single pass, so that only the current
+ * statement is held in memory.
+ * <p>
+ * Like {@link ScriptSplitter}, the tokenizer splits the script by the delimiter and replaces a doubled delimiter
+ * with a single one. In addition, a delimiter inside string literals, quoted identifiers, PostgreSQL dollar-quoted
+ * strings and block comments does not end a statement, and quotes inside comments are ignored.
+ * <p>
+ * A backslash escapes the next character in all string literals in MySQL mode, and in PostgreSQL escape string
+ * literals like {@code E'it\'s'} in PostgreSQL mode.
+ */
+public class ScriptTokenizer implements Iterator<String>, Closeable {
+
+    protected enum State {
+        NORMAL,
+        SINGLE_QUOTED,
+        DOUBLE_QUOTED,
+        BACKTICK_QUOTED,
+        DOLLAR_QUOTED,
+        LINE_COMMENT,
+        BLOCK_COMMENT
+    }
+
+    protected final Reader reader;
+    protected final String delimiter;
+    protected final boolean backslashEscapes;
+    protected final boolean escapeStringLiterals;
+
+    protected char[] buffer = new char[8192];
+    protected int position;
+    protected int limit;
+    protected boolean endOfInput;
+
+    protected String nextStatement;
+
+    /**
+     * @param reader    script reader
+     * @param delimiter statements delimiter
+     */
+    public ScriptTokenizer(Reader reader, String delimiter) {
+        this(reader, delimiter, false);
+    }
+
+    /**
+     * @param reader           script reader
+     * @param delimiter        statements delimiter
+     * @param backslashEscapes whether a backslash escapes the next character in string literals, as in MySQL
+     */
+    public ScriptTokenizer(Reader reader, String delimiter, boolean backslashEscapes) {
+        this(reader, delimiter, backslashEscapes, false);
+    }
+
+    /**
+     * @param reader               script reader
+     * @param delimiter            statements delimiter
+     * @param backslashEscapes     whether a backslash escapes the next character in string literals, as in MySQL
+     * @param escapeStringLiterals whether a backslash escapes the next character in literals prefixed with
+     *                             {@code E}, as in PostgreSQL
+     */
+    public ScriptTokenizer(Reader reader, String delimiter, boolean backslashEscapes, boolean escapeStringLiterals) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.backslashEscapes = backslashEscapes;
+        this.escapeStringLiterals = escapeStringLiterals;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextStatement == null) {
+            try {
+                nextStatement = readStatement();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read SQL script", e);
+            }
+        }
+        return nextStatement != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String statement = nextStatement;
+        nextStatement = null;
+        return statement;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    protected String readStatement() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        State state = State.NORMAL;
+        String dollarTag = null;
+        boolean escaped = false;
+        int delimiterLength = delimiter.length();
+        char delimiterStart = delimiter.charAt(0);
+
+        while (true) {
+            int c = peek(0);
+            if (c == -1) {
+                return sb.length() > 0 ? sb.toString() : null;
+            }
+
+            if (c == delimiterStart && matches(delimiter, 0)) {
+                if (matches(delimiter, delimiterLength)) {
+                    // doubled delimiter is an escaped delimiter character in any state
+                    sb.append(delimiter);
+                    skip(delimiterLength * 2);
+                    continue;
+                }
+                // scripts are written for the regex based splitter, so a delimiter at the end of
+                // a line comment, like "insert ... -- comment^", still ends the statement
+                if (state == State.NORMAL || state == State.LINE_COMMENT) {
+                    skip(delimiterLength);
+                    return sb.toString();
+                }
+            }
+
+            switch (state) {
+                case NORMAL:
+                    if (c == '-' && peek(1) == '-') {
+                        state = State.LINE_COMMENT;
+                        copy(sb, 2);
+                    } else if (c == '/' && peek(1) == '*') {
+                        state = State.BLOCK_COMMENT;
+                        copy(sb, 2);
+                    } else if (c == '\'') {
+                        state = State.SINGLE_QUOTED;
+                        escaped = backslashEscapes || escapeStringLiterals && isEscapeStringPrefix(sb);
+                        copy(sb, 1);
+                    } else if (c == '"') {
+                        state = State.DOUBLE_QUOTED;
+                        copy(sb, 1);
+                    } else if (c == '`') {
+                        state = State.BACKTICK_QUOTED;
+                        copy(sb, 1);
+                    } else if (c == '$' && !isIdentifierPart(lastChar(sb)) && (dollarTag = readDollarTag()) != null) {
+                        state = State.DOLLAR_QUOTED;
+                        copy(sb, dollarTag.length());
+                    } else {
+                        copy(sb, 1);
+                    }
+                    break;
+                case SINGLE_QUOTED:
+                    if (c == '\\' && escaped && peek(1) != -1) {
+                        copy(sb, 2);
+                    } else if (c == '\'' && peek(1) == '\'') {
+                        // doubled quote
+                        copy(sb, 2);
+                    } else {
+                        if (c == '\'') {
+                            state = State.NORMAL;
+                        }
+                        copy(sb, 1);
+                    }
+                    break;
+                case DOUBLE_QUOTED:
+                    if (c == '"') {
+                        state = State.NORMAL;
+                    }
+                    copy(sb, 1);
+                    break;
+                case BACKTICK_QUOTED:
+                    if (c == '`') {
+                        state = State.NORMAL;
+                    }
+                    copy(sb, 1);
+                    break;
+                case DOLLAR_QUOTED:
+                    if (c == '$' && matches(dollarTag, 0)) {
+                        state = State.NORMAL;
+                        copy(sb, dollarTag.length());
+                        dollarTag = null;
+                    } else {
+                        copy(sb, 1);
+                    }
+                    break;
+                case LINE_COMMENT:
+                    if (c == '\n' || c == '\r') {
+                        state = State.NORMAL;
+                    }
+                    copy(sb, 1);
+                    break;
+                case BLOCK_COMMENT:
+                    if (c == '*' && peek(1) == '/') {
+                        state = State.NORMAL;
+                        copy(sb, 2);
+                    } else {
+                        copy(sb, 1);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a dollar quote tag like {@code $$} or {@code $body$} at the current position without consuming it.
+     *
+     * @return the tag or null if there is no tag at the current position
+     */
+    protected String readDollarTag() throws IOException {
+        int i = 1;
+        int c = peek(i);
+        while (c != '$') {
+            if (c == -1 || !(i == 1 ? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c))) {
+                return null;
+            }
+            c = peek(++i);
+        }
+        StringBuilder tag = new StringBuilder(i + 1);
+        for (int j = 0; j <= i; j++) {
+            tag.append((char) peek(j));
+        }
+        return tag.toString();
+    }
+
+    /**
+     * @return true if the statement ends with a standalone {@code E} prefix of an escape string literal
+     */
+    protected boolean isEscapeStringPrefix(StringBuilder sb) {
+        int length = sb.length();
+        if (length == 0 || Character.toUpperCase(sb.charAt(length - 1)) != 'E') {
+            return false;
+        }
+        return length == 1 || !isIdentifierPart(sb.charAt(length - 2));
+    }
+
+    protected boolean isIdentifierPart(int c) {
+        return c != -1 && Character.isJavaIdentifierPart(c);
+    }
+
+    protected int lastChar(StringBuilder sb) {
+        return sb.length() > 0 ? sb.charAt(sb.length() - 1) : -1;
+    }
+
+    protected boolean matches(String s, int offset) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (peek(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void copy(StringBuilder sb, int count) throws IOException {
+        fill(count);
+        int length = Math.min(count, limit - position);
+        sb.append(buffer, position, length);
+        position += length;
+    }
+
+    protected void skip(int count) throws IOException {
+        fill(count);
+        position = Math.min(position + count, limit);
+    }
+
+    protected int peek(int offset) throws IOException {
+        if (position + offset >= limit) {
+            fill(offset + 1);
+            if (position + offset >= limit) {
+                return -1;
+            }
+        }
+        return buffer[position + offset];
+    }
+
+    /**
+     * Makes at least {@code count} characters available in the buffer, unless the input ends earlier.
+     */
+    protected void fill(int count) throws IOException {
+        if (limit - position >= count || endOfInput) {
+            return;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (count > buffer.length) {
+            char[] newBuffer = new char[Math.max(count, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+        }
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                endOfInput = true;
+                return;
+            }
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names, URLs and system properties of the databases created for forked test JVMs.
+ * <p>
+ * A test JVM leases a database by locking the file {@code <i>.lock} in the directory passed in
+ * {@code cuba.testDb.lockDir}. The lock is released by the operating system when the JVM exits, so a database is
+ * never used by two running JVMs, regardless of how Gradle numbers the workers.
+ */
+public class TestDbForks {
+
+    public static final String FORKS_PROPERTY = "cuba.testDb.forks";
+    public static final String URL_PROPERTY_FORMAT = "cuba.testDb.%d.url";
+    public static final String USER_PROPERTY = "cuba.testDb.user";
+    public static final String PASSWORD_PROPERTY = "cuba.testDb.password";
+    public static final String LOCK_DIR_PROPERTY = "cuba.testDb.lockDir";
+
+    /**
+     * @return names {@code <dbName>_1} ... {@code <dbName>_<forks>}
+     */
+    public static List<String> getForkDbNames(String dbName, int forks) {
+        List<String> names = new ArrayList<>(forks);
+        for (int i = 1; i <= forks; i++) {
+            names.add(dbName + "_" + i);
+        }
+        return names;
+    }
+
+    /**
+     * Replaces the database name in the URL, e.g. {@code jdbc:postgresql://host/app?ssl=false} or
+     * {@code jdbc:sqlserver://host;databaseName=app;encrypt=false}.
+     */
+    public static String getForkUrl(String dbUrl, String dbName, String forkDbName) {
+        Matcher matcher = Pattern.compile("([/=])" + Pattern.quote(dbName) + "(?=[?;]|$)").matcher(dbUrl);
+        if (!matcher.find()) {
+            throw new GradleException("Database name '" + dbName + "' is not found in URL " + dbUrl);
+        }
+        return dbUrl.substring(0, matcher.start()) + matcher.group(1) + forkDbName + dbUrl.substring(matcher.end());
+    }
+
+    /**
+     * @return system properties of a test JVM
+     */
+    public static List<String> getJvmArguments(List<String> forkUrls, String user, String password, File lockDir) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(systemProperty(FORKS_PROPERTY, String.valueOf(forkUrls.size())));
+        for (int i = 0; i < forkUrls.size(); i++) {
+            arguments.add(systemProperty(String.format(URL_PROPERTY_FORMAT, i + 1), forkUrls.get(i)));
+        }
+        arguments.add(systemProperty(USER_PROPERTY, user));
+        arguments.add(systemProperty(PASSWORD_PROPERTY, password));
+        arguments.add(systemProperty(LOCK_DIR_PROPERTY, lockDir.getAbsolutePath()));
+        return arguments;
+    }
+
+    protected static String systemProperty(String name, String value) {
+        return "-D" + name + "=" + (value != null ? value : "");
+    }
+}
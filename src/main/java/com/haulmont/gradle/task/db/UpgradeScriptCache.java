@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.db;
+
+import com.haulmont.gradle.utils.HashUtils;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of compiled {@code *.upgrade.groovy} scripts.
+ * <p>
+ * A script is compiled once to a class named by the hash of its content, the plugin version and the Groovy
+ * version. The classes of each script, including the classes declared in it, are stored in a separate directory
+ * named by the hash and loaded by a separate class loader, so scripts declaring classes with the same name do not
+ * affect each other. Directories not used recently are deleted by {@link #evict(long)}.
+ */
+public class UpgradeScriptCache implements Closeable {
+
+    protected static final String CLASS_NAME_PREFIX = "UpgradeScript_";
+    protected static final String TEMP_DIR_PREFIX = "compile";
+    // temporary directories left by interrupted builds
+    protected static final long STALE_TEMP_DIR_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Logger log = LoggerFactory.getLogger(UpgradeScriptCache.class);
+
+    protected final File cacheDir;
+    protected final ClassLoader parentClassLoader;
+    protected final String pluginVersion;
+
+    protected CompilerConfiguration compilerConfiguration;
+    protected GroovyClassLoader compilerClassLoader;
+    protected final Map<String, URLClassLoader> scriptClassLoaders = new HashMap<>();
+    protected final Set<File> usedDirs = new HashSet<>();
+
+    /**
+     * @param cacheDir          directory of compiled classes
+     * @param parentClassLoader class loader providing classes used by scripts
+     * @param pluginVersion     version of the plugin, scripts compiled by other versions are not reused
+     */
+    public UpgradeScriptCache(File cacheDir, ClassLoader parentClassLoader, String pluginVersion) {
+        this.cacheDir = cacheDir;
+        this.parentClassLoader = parentClassLoader;
+        this.pluginVersion = pluginVersion;
+    }
+
+    /**
+     * Returns the compiled class of the script, compiling it if it is not cached yet.
+     */
+    public Class<? extends Script> getScriptClass(File file) throws IOException {
+        return getScriptClass(file.toPath());
+    }
+
+    /**
+     * Returns the compiled class of the script, compiling it if it is not cached yet.
+     */
+    @SuppressWarnings({"unchecked", "ResultOfMethodCallIgnored"})
+    public Class<? extends Script> getScriptClass(Path file) throws IOException {
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        String hash = HashUtils.sha1(pluginVersion + "\n" + GroovySystem.getVersion() + "\n" + content);
+        String className = CLASS_NAME_PREFIX + hash;
+
+        File scriptDir = new File(cacheDir, hash);
+        if (scriptDir.isDirectory()) {
+            log.debug("[UpgradeScriptCache] using cached class of {}", file.getFileName());
+        } else {
+            log.debug("[UpgradeScriptCache] compiling {}", file.getFileName());
+            compile(scriptDir, className, content);
+        }
+        scriptDir.setLastModified(System.currentTimeMillis());
+        usedDirs.add(scriptDir);
+
+        try {
+            return (Class<? extends Script>) getScriptClassLoader(hash, scriptDir).loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Compiled class of " + file.toUri() + " is not found in " + scriptDir, e);
+        }
+    }
+
+    /**
+     * Compiles the script to a temporary directory and renames it to the script directory, so that concurrent
+     * builds never see the directory without some of the classes.
+     */
+    protected void compile(File scriptDir, String className, String content) throws IOException {
+        Files.createDirectories(cacheDir.toPath());
+        Path tempDir = Files.createTempDirectory(cacheDir.toPath(), TEMP_DIR_PREFIX);
+        try {
+            CompilerConfiguration configuration = new CompilerConfiguration(getCompilerConfiguration());
+            configuration.setTargetDirectory(tempDir.toFile());
+
+            CompilationUnit unit = new CompilationUnit(configuration, null, getCompilerClassLoader());
+            unit.addSource(className + ".groovy", content);
+            unit.compile();
+
+            if (!Files.exists(tempDir.resolve(className + ".class"))) {
+                throw new IOException("Class " + className + " is not compiled, upgrade scripts must not declare a package");
+            }
+            move(tempDir, scriptDir.toPath());
+        } finally {
+            FileUtils.deleteQuietly(tempDir.toFile());
+        }
+    }
+
+    protected void move(Path sourceDir, Path targetDir) throws IOException {
+        try {
+            Files.move(sourceDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(sourceDir, targetDir);
+        } catch (FileSystemException e) {
+            // the same script has been compiled by a concurrent build
+            if (!Files.isDirectory(targetDir)) {
+                throw e;
+            }
+        }
+    }
+
+    protected CompilerConfiguration getCompilerConfiguration() {
+        if (compilerConfiguration == null) {
+            compilerConfiguration = new CompilerConfiguration();
+        }
+        return compilerConfiguration;
+    }
+
+    protected GroovyClassLoader getCompilerClassLoader() {
+        if (compilerClassLoader == null) {
+            compilerClassLoader = new GroovyClassLoader(parentClassLoader, getCompilerConfiguration());
+        }
+        return compilerClassLoader;
+    }
+
+    protected ClassLoader getScriptClassLoader(String hash, File scriptDir) throws IOException {
+        URLClassLoader classLoader = scriptClassLoaders.get(hash);
+        if (classLoader == null) {
+            classLoader = new URLClassLoader(new URL[]{scriptDir.toURI().toURL()}, parentClassLoader);
+            scriptClassLoaders.put(hash, classLoader);
+        }
+        return classLoader;
+    }
+
+    /**
+     * Deletes least recently used script directories until the total size fits the limit. Directories of the
+     * scripts loaded by this cache are never deleted.
+     */
+    public void evict(long maxSizeBytes) {
+        File[] tempDirs = cacheDir.listFiles(file -> file.isDirectory() && file.getName().startsWith(TEMP_DIR_PREFIX)
+                && file.lastModified() < System.currentTimeMillis() - STALE_TEMP_DIR_MS);
+        if (tempDirs != null) {
+            for (File tempDir : tempDirs) {
+                FileUtils.deleteQuietly(tempDir);
+            }
+        }
+
+        File[] dirs = cacheDir.listFiles(file -> file.isDirectory() && !file.getName().startsWith(TEMP_DIR_PREFIX));
+        if (dirs == null) {
+            return;
+        }
+        Arrays.sort(dirs, Comparator.comparingLong(File::lastModified).reversed());
+
+        long totalSize = 0;
+        for (File dir : dirs) {
+            long size = FileUtils.sizeOfDirectory(dir);
+            totalSize += size;
+            if (totalSize > maxSizeBytes && !usedDirs.contains(dir)) {
+                log.debug("[UpgradeScriptCache] deleting compiled script {}", dir.getName());
+                FileUtils.deleteQuietly(dir);
+                totalSize -= size;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compilerClassLoader != null) {
+            compilerClassLoader.close();
+            compilerClassLoader = null;
+        }
+        for (URLClassLoader classLoader : scriptClassLoaders.values()) {
+            classLoader.close();
+        }
+        scriptClassLoaders.clear();
+    }
+}
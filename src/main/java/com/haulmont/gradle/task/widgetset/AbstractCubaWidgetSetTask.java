@@ -27,6 +27,7 @@ import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.tasks.SourceSet;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 public abstract class AbstractCubaWidgetSetTask extends DefaultTask {
@@ -51,6 +52,8 @@ public abstract class AbstractCubaWidgetSetTask extends DefaultTask {
         return compilerJvmArgs;
     }
 
+    public abstract String getWidgetSetClass();
+
     protected Collection<File> getClassesDirs(SourceSet sourceSet) {
         return sourceSet.getOutput().getClassesDirs().getFiles();
     }
@@ -123,15 +126,47 @@ public abstract class AbstractCubaWidgetSetTask extends DefaultTask {
             sources.add(depMainSourceSet.getOutput().getResourcesDir());
         }
 
+        // only files of the packages translated by GWT, so that server side changes do not trigger compilation
+        Set<String> includes = getClientIncludePatterns(sources);
+
         sources.forEach(sourceDir -> {
             if (sourceDir.exists()) {
                 getProject()
-                        .fileTree(sourceDir, f ->
-                                f.setExcludes(Collections.singleton("**/.*")))
+                        .fileTree(sourceDir, f -> {
+                            if (includes != null) {
+                                f.setIncludes(includes);
+                            }
+                            f.setExcludes(Collections.singleton("**/.*"));
+                        })
                         .forEach(files::add);
             }
         });
 
         return getProject().files(files);
     }
+
+    /**
+     * @return patterns of files used by the GWT modules of the widgetset or null if the modules are not found
+     */
+    protected Set<String> getClientIncludePatterns(List<File> sources) {
+        String widgetSetClass = getWidgetSetClass();
+        if (widgetSetClass == null || widgetSetClass.isEmpty()) {
+            return null;
+        }
+        try {
+            GwtModuleGraph graph = GwtModuleGraph.load(widgetSetClass, sources);
+            if (graph == null) {
+                getProject().getLogger().info("GWT module {} is not found in sources, all files are inputs of {}",
+                        widgetSetClass, getPath());
+                return null;
+            }
+            getProject().getLogger().info("GWT modules of {}: {}, client paths: {}",
+                    widgetSetClass, graph.getModules().keySet(), graph.getClientPaths());
+            return graph.getIncludePatterns();
+        } catch (IOException e) {
+            getProject().getLogger().warn("Unable to read GWT modules of {}, all files are inputs of {}: {}",
+                    widgetSetClass, getPath(), e.toString());
+            return null;
+        }
+    }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ package com.haulmont.gradle.task.widgetset;
 import com.haulmont.gradle.classpath.ClassPathUtil;
 import org.apache.commons.io.FileUtils;
 import org.apache.tools.ant.taskdefs.condition.Os;
+import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.FileCollection;
@@ -27,6 +28,8 @@ import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.tasks.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -34,8 +37,23 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+@CacheableTask
 public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
 
+    /**
+     * Compiles all permutations with the configured optimization.
+     */
+    public static final String RELEASE_PROFILE = "release";
+    /**
+     * Compiles a single draft permutation for {@link #devUserAgent}, all other properties are collapsed.
+     */
+    public static final String DEV_PROFILE = "dev";
+
+    /**
+     * Project property overriding the profile, e.g. {@code -PwidgetSetProfile=dev}.
+     */
+    public static final String PROFILE_PROPERTY = "widgetSetProfile";
+
     protected String widgetSetsDir;
     @Input
     protected String widgetSetClass;
@@ -51,6 +69,10 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
     protected int optimize = 9;
     @Input
     protected String style = "OBF";
+    @Input
+    protected String profile = RELEASE_PROFILE;
+    @Input
+    protected String devUserAgent = "safari";
 
     protected String xmx = "-Xmx768m";
     protected String xss = "-Xss8m";
@@ -65,11 +87,23 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
 
     protected boolean printCompilerClassPath = false;
 
+    /**
+     * Reuse units compiled by previous builds, see {@link GwtUnitCache}.
+     */
+    protected boolean unitCacheEnabled = true;
+    protected File unitCacheDir;
+    protected long unitCacheMaxSizeMb = 1024;
+
     public CubaWidgetSetBuilding() {
         setDescription("Builds GWT widgetset");
         setGroup("Web resources");
         // set default task dependsOn
         dependsOn(getProject().getTasks().getByPath(JavaPlugin.CLASSES_TASK_NAME));
+
+        Object profileProperty = getProject().findProperty(PROFILE_PROPERTY);
+        if (profileProperty != null) {
+            profile = profileProperty.toString();
+        }
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -78,6 +112,10 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         if (widgetSetClass == null || widgetSetClass.isEmpty()) {
             throw new IllegalStateException("Please specify \"String widgetSetClass\" for build widgetset");
         }
+        if (!RELEASE_PROFILE.equals(profile) && !DEV_PROFILE.equals(profile)) {
+            throw new IllegalStateException("Unsupported widgetset profile \"" + profile + "\", " +
+                    "use \"" + RELEASE_PROFILE + "\" or \"" + DEV_PROFILE + "\"");
+        }
 
         if (widgetSetsDir == null || widgetSetsDir.isEmpty()) {
             widgetSetsDir = getDefaultBuildDir();
@@ -104,9 +142,27 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         gwtWidgetSetTemp.mkdir();
 
         List<File> compilerClassPath = collectClassPathEntries();
+        if (isDevProfile()) {
+            getProject().getLogger().lifecycle("Building widgetset {} for {} only, draft compile",
+                    widgetSetClass, devUserAgent);
+            compilerClassPath.add(0, writeDevModule(new File(gwtJavaTmp, "dev-module")));
+        }
         List<String> gwtCompilerArgs = collectCompilerArgs(gwtWidgetSetTemp.getAbsolutePath());
         List<String> gwtCompilerJvmArgs = collectCompilerJvmArgs(gwtJavaTmp);
 
+        GwtUnitCache unitCache = null;
+        File projectUnitCacheDir = null;
+        if (unitCacheEnabled) {
+            unitCache = new GwtUnitCache(getUnitCacheDir());
+            // units of different projects are not mixed even if they have the same dependencies
+            String owner = getProject().getRootDir().getAbsolutePath() + getPath();
+            projectUnitCacheDir = unitCache.getCacheDir(owner, compilerClassPath);
+            getProject().getLogger().info("[CubaWidgetSetBuilding] using GWT unit cache {}", projectUnitCacheDir);
+
+            gwtCompilerJvmArgs.add("-Dgwt.persistentunitcache=true");
+            gwtCompilerJvmArgs.add("-Dgwt.persistentunitcachedir=" + projectUnitCacheDir.getAbsolutePath());
+        }
+
         if (Os.isFamily(Os.FAMILY_WINDOWS) && shortClassPath) {
             File classPathFile = getProject().file("build/tmp/compile-widget-set-classpath.dat");
             ClassPathUtil.createClassPathFile(classPathFile, compilerClassPath);
@@ -130,6 +186,10 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         FileUtils.deleteQuietly(new File(gwtWidgetSetTemp, "WEB-INF"));
 
         gwtWidgetSetTemp.renameTo(widgetSetsDirectory);
+
+        if (unitCache != null) {
+            unitCache.evict(unitCacheMaxSizeMb * 1024 * 1024, projectUnitCacheDir);
+        }
     }
 
     @InputFiles
@@ -138,6 +198,15 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         return super.getSourceFiles();
     }
 
+    /**
+     * Jars of the compiler classpath, a changed dependency makes the output outdated.
+     */
+    @Classpath
+    public FileCollection getCompilerJars() {
+        SourceSet mainSourceSet = getSourceSet(getProject(), "main");
+        return mainSourceSet.getCompileClasspath().filter(f -> f.isFile() && includedArtifact(f.getName()));
+    }
+
     @OutputDirectory
     public File getOutputDirectory() {
         if (widgetSetsDir == null || widgetSetsDir.isEmpty()) {
@@ -227,7 +296,7 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
             args.add("-strict");
         }
 
-        if (draft) {
+        if (draft || isDevProfile()) {
             args.add("-draftCompile");
         }
 
@@ -240,10 +309,10 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         gwtCompilerArgs.put("-style", style);
         gwtCompilerArgs.put("-logLevel", logLevel);
         gwtCompilerArgs.put("-localWorkers", String.valueOf(workers));
-        gwtCompilerArgs.put("-optimize", String.valueOf(optimize));
+        gwtCompilerArgs.put("-optimize", String.valueOf(isDevProfile() ? 0 : optimize));
 
         if (compilerArgs != null) {
-            for (Map.Entry<String, String> entry : gwtCompilerArgs.entrySet()) {
+            for (Map.Entry<String, Object> entry : compilerArgs.entrySet()) {
                 gwtCompilerArgs.put(entry.getKey(), String.valueOf(entry.getValue()));
             }
         }
@@ -253,7 +322,7 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
             args.add(entry.getValue());
         }
 
-        args.add(widgetSetClass);
+        args.add(isDevProfile() ? getDevModuleName() : widgetSetClass);
 
         if (getProject().getLogger().isInfoEnabled()) {
             System.out.println("GWT Compiler args: ");
@@ -264,6 +333,35 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         return args;
     }
 
+    protected boolean isDevProfile() {
+        return DEV_PROFILE.equals(profile);
+    }
+
+    protected String getDevModuleName() {
+        return widgetSetClass + "Dev";
+    }
+
+    /**
+     * Writes a module inheriting the widgetset, renamed to the widgetset so that the output location is the same.
+     *
+     * @return directory to be added to the compiler classpath
+     */
+    protected File writeDevModule(File moduleDir) {
+        File moduleFile = new File(moduleDir, getDevModuleName().replace('.', '/') + ".gwt.xml");
+        String module = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<module rename-to=\"" + widgetSetClass + "\">\n" +
+                "    <inherits name=\"" + widgetSetClass + "\"/>\n" +
+                "    <set-property name=\"user.agent\" value=\"" + devUserAgent + "\"/>\n" +
+                "    <collapse-all-properties/>\n" +
+                "</module>\n";
+        try {
+            FileUtils.writeStringToFile(moduleFile, module, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new GradleException("Unable to write " + moduleFile, e);
+        }
+        return moduleDir;
+    }
+
     protected List<String> collectCompilerJvmArgs(File gwtJavaTmp) {
         List<String> args = new ArrayList<>(compilerJvmArgs);
 
@@ -394,6 +492,62 @@ public class CubaWidgetSetBuilding extends AbstractCubaWidgetSetTask {
         return workers;
     }
 
+    public boolean isUnitCacheEnabled() {
+        return unitCacheEnabled;
+    }
+
+    public void setUnitCacheEnabled(boolean unitCacheEnabled) {
+        this.unitCacheEnabled = unitCacheEnabled;
+    }
+
+    /**
+     * @return root directory of GWT unit caches, {@code caches/cuba-plugin/gwt-unit-cache} in the Gradle user home
+     * by default
+     */
+    public File getUnitCacheDir() {
+        if (unitCacheDir == null) {
+            return new File(getProject().getGradle().getGradleUserHomeDir(), "caches/cuba-plugin/gwt-unit-cache");
+        }
+        return unitCacheDir;
+    }
+
+    public void setUnitCacheDir(File unitCacheDir) {
+        this.unitCacheDir = unitCacheDir;
+    }
+
+    public long getUnitCacheMaxSizeMb() {
+        return unitCacheMaxSizeMb;
+    }
+
+    public void setUnitCacheMaxSizeMb(long unitCacheMaxSizeMb) {
+        this.unitCacheMaxSizeMb = unitCacheMaxSizeMb;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets {@link #RELEASE_PROFILE} or {@link #DEV_PROFILE}. Both profiles write to the same output directory, so
+     * the output of the other profile is restored only from the build cache ({@code org.gradle.caching=true}),
+     * without the cache switching the profile recompiles the widgetset.
+     */
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public String getDevUserAgent() {
+        return devUserAgent;
+    }
+
+    /**
+     * Sets the GWT user agent compiled by the dev profile: {@code safari} for Chrome, Safari and Edge,
+     * {@code gecko1_8} for Firefox.
+     */
+    public void setDevUserAgent(String devUserAgent) {
+        this.devUserAgent = devUserAgent;
+    }
+
     public void setPrintCompilerClassPath(boolean printCompilerClassPath) {
         this.printCompilerClassPath = printCompilerClassPath;
     }
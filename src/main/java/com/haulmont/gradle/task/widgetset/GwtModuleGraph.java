@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.widgetset;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Modules of a GWT application reachable by {@code <inherits>} from the root module and found in the given
+ * directories, with the packages they translate to JavaScript.
+ * <p>
+ * Modules located in jars are not included, their changes are tracked by the jars themselves.
+ * <p>
+ * The connector bundle generator of Vaadin also reads the server components referenced by {@code @Connect}, so the
+ * packages of the modules, where the components usually are, and the packages of the referenced components are
+ * included without subpackages.
+ */
+public class GwtModuleGraph {
+
+    protected static final String MODULE_SUFFIX = ".gwt.xml";
+
+    protected static final Pattern CONNECT_PATTERN =
+            Pattern.compile("@Connect\\s*\\(\\s*(?:value\\s*=\\s*)?([\\w.]+)\\.class");
+    protected static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    protected static final Pattern IMPORT_PATTERN = Pattern.compile("^\\s*import\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    protected final Map<String, File> modules = new LinkedHashMap<>();
+    protected final Set<String> clientPaths = new LinkedHashSet<>();
+    protected final Set<String> serverPaths = new LinkedHashSet<>();
+
+    /**
+     * @param rootModule name of the root module, e.g. {@code com.company.app.web.toolkit.ui.AppWidgetSet}
+     * @param roots      source, resource and class directories
+     * @return the graph or null if the root module is not found in the directories
+     */
+    public static GwtModuleGraph load(String rootModule, List<File> roots) throws IOException {
+        if (findModuleFile(rootModule, roots) == null) {
+            return null;
+        }
+        GwtModuleGraph graph = new GwtModuleGraph();
+
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(rootModule);
+        while (!queue.isEmpty()) {
+            String module = queue.poll();
+            if (graph.modules.containsKey(module)) {
+                continue;
+            }
+            File moduleFile = findModuleFile(module, roots);
+            if (moduleFile == null) {
+                continue;
+            }
+            graph.modules.put(module, moduleFile);
+            queue.addAll(graph.readModule(module, moduleFile));
+        }
+        graph.readConnectors(roots);
+        return graph;
+    }
+
+    protected static File findModuleFile(String module, List<File> roots) {
+        String path = getModulePath(module);
+        for (File root : roots) {
+            File file = new File(root, path);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return path of the module file relative to a source root, e.g. {@code com/company/AppWidgetSet.gwt.xml}
+     */
+    public static String getModulePath(String module) {
+        return module.replace('.', '/') + MODULE_SUFFIX;
+    }
+
+    /**
+     * Adds the packages of the module to the client paths.
+     *
+     * @return names of inherited modules
+     */
+    protected List<String> readModule(String module, File moduleFile) throws IOException {
+        String packagePath = module.lastIndexOf('.') > 0
+                ? module.substring(0, module.lastIndexOf('.')).replace('.', '/') + "/"
+                : "";
+
+        serverPaths.add(packagePath.isEmpty() ? "" : packagePath.substring(0, packagePath.length() - 1));
+
+        Element root = parse(moduleFile).getDocumentElement();
+        List<String> inherits = new ArrayList<>();
+        boolean hasSource = false;
+        boolean hasPublic = false;
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (!(node instanceof Element)) {
+                continue;
+            }
+            Element element = (Element) node;
+            switch (element.getTagName()) {
+                case "inherits":
+                    inherits.add(element.getAttribute("name"));
+                    break;
+                case "source":
+                case "super-source":
+                    hasSource = true;
+                    clientPaths.add(packagePath + element.getAttribute("path"));
+                    break;
+                case "public":
+                    hasPublic = true;
+                    clientPaths.add(packagePath + element.getAttribute("path"));
+                    break;
+                default:
+                    break;
+            }
+        }
+        // defaults of GWT for modules without the elements
+        if (!hasSource) {
+            clientPaths.add(packagePath + "client");
+        }
+        if (!hasPublic) {
+            clientPaths.add(packagePath + "public");
+        }
+        return inherits;
+    }
+
+    /**
+     * Adds the packages of the server components referenced by connectors in the client paths to the server paths.
+     */
+    protected void readConnectors(List<File> roots) throws IOException {
+        for (File root : roots) {
+            for (String clientPath : clientPaths) {
+                File dir = new File(root, clientPath);
+                if (!dir.isDirectory()) {
+                    continue;
+                }
+                List<Path> sources;
+                try (Stream<Path> files = Files.walk(dir.toPath())) {
+                    sources = files.filter(file -> file.getFileName().toString().endsWith(".java"))
+                            .collect(Collectors.toList());
+                }
+                for (Path source : sources) {
+                    String content = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+                    Matcher matcher = CONNECT_PATTERN.matcher(content);
+                    while (matcher.find()) {
+                        serverPaths.add(getPackagePath(resolveClassName(matcher.group(1), content)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return fully qualified name of the class referenced in the source
+     */
+    protected String resolveClassName(String reference, String content) {
+        String firstName = reference.contains(".") ? reference.substring(0, reference.indexOf('.')) : reference;
+        if (Character.isLowerCase(firstName.charAt(0))) {
+            return reference;
+        }
+        Matcher importMatcher = IMPORT_PATTERN.matcher(content);
+        while (importMatcher.find()) {
+            String imported = importMatcher.group(1);
+            if (imported.endsWith("." + firstName)) {
+                return imported + reference.substring(firstName.length());
+            }
+        }
+        Matcher packageMatcher = PACKAGE_PATTERN.matcher(content);
+        return packageMatcher.find() ? packageMatcher.group(1) + "." + reference : reference;
+    }
+
+    /**
+     * @return path of the package of the class, nested classes are recognized by the capitalized name
+     */
+    protected String getPackagePath(String className) {
+        List<String> packageNames = new ArrayList<>();
+        for (String name : className.split("\\.")) {
+            if (!Character.isLowerCase(name.charAt(0))) {
+                break;
+            }
+            packageNames.add(name);
+        }
+        return String.join("/", packageNames);
+    }
+
+    protected Document parse(File moduleFile) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // module files refer to the GWT DTD by URL
+            factory.setValidating(false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(moduleFile);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Unable to parse GWT module " + moduleFile, e);
+        }
+    }
+
+    /**
+     * @return module names and their files
+     */
+    public Map<String, File> getModules() {
+        return modules;
+    }
+
+    /**
+     * @return paths of translatable and public packages relative to a source root, without the trailing slash
+     */
+    public Set<String> getClientPaths() {
+        return clientPaths;
+    }
+
+    /**
+     * @return paths of packages containing server components used by connectors, without the trailing slash
+     */
+    public Set<String> getServerPaths() {
+        return serverPaths;
+    }
+
+    /**
+     * @return Ant-style patterns matching files of the modules relative to a source root
+     */
+    public Set<String> getIncludePatterns() {
+        Set<String> patterns = new LinkedHashSet<>();
+        for (String module : modules.keySet()) {
+            patterns.add(getModulePath(module));
+        }
+        for (String path : clientPaths) {
+            patterns.add(path.isEmpty() || path.endsWith("/") ? path + "**" : path + "/**");
+        }
+        for (String path : serverPaths) {
+            patterns.add(path.isEmpty() ? "*" : path + "/*");
+        }
+        return patterns;
+    }
+}
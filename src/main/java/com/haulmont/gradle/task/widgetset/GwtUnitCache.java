@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.task.widgetset;
+
+import com.haulmont.gradle.utils.HashUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent GWT unit cache directories.
+ * <p>
+ * The GWT compiler stores compiled units in the directory passed in the {@code gwt.persistentunitcachedir}
+ * system property and reuses the units whose sources are not changed. A directory is selected by the GWT version
+ * and the jars of the compiler classpath, so that units compiled against other libraries are never mixed. Directories
+ * not used recently are deleted when the total size of the cache exceeds the limit.
+ */
+public class GwtUnitCache {
+
+    private static final Logger log = LoggerFactory.getLogger(GwtUnitCache.class);
+
+    protected final File rootDir;
+
+    public GwtUnitCache(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    /**
+     * Returns the cache directory for the classpath and marks it as recently used.
+     *
+     * @param owner     identifies the compiled module, e.g. the task path
+     * @param classPath compiler classpath, only jars affect the result since the compiler checks sources itself
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public File getCacheDir(String owner, List<File> classPath) {
+        File cacheDir = new File(rootDir, calculateKey(owner, classPath));
+        cacheDir.mkdirs();
+        cacheDir.setLastModified(System.currentTimeMillis());
+        return cacheDir;
+    }
+
+    protected String calculateKey(String owner, List<File> classPath) {
+        StringBuilder sb = new StringBuilder(owner).append('\n');
+        for (File entry : classPath) {
+            if (entry.isFile()) {
+                // the GWT version is a part of the compiler jar name
+                sb.append(entry.getName()).append(':')
+                        .append(entry.length()).append(':')
+                        .append(entry.lastModified()).append('\n');
+            }
+        }
+        return HashUtils.sha1(sb.toString());
+    }
+
+    /**
+     * Deletes least recently used cache directories until the total size fits the limit. The directory in use is
+     * never deleted.
+     */
+    public void evict(long maxSizeBytes, File inUse) {
+        File[] dirs = rootDir.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        Arrays.sort(dirs, Comparator.comparingLong(File::lastModified).reversed());
+
+        long totalSize = 0;
+        for (File dir : dirs) {
+            long size = FileUtils.sizeOfDirectory(dir);
+            totalSize += size;
+            if (totalSize > maxSizeBytes && !dir.equals(inUse)) {
+                log.info("[GwtUnitCache] deleting unit cache {} of {} bytes", dir, size);
+                FileUtils.deleteQuietly(dir);
+                totalSize -= size;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.haulmont.gradle.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Makes a directory contain exactly the given files, copying only files whose content differs from the existing
+ * ones. Unchanged files keep their timestamps, so tools watching the directory do not see them as modified.
+ */
+public class DirectorySync {
+
+    protected int copiedFiles;
+    protected int deletedFiles;
+
+    /**
+     * @param files     source files by their paths relative to the target directory, with '/' separators
+     * @param targetDir target directory
+     */
+    public void sync(Map<String, File> files, File targetDir) {
+        try {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                File source = entry.getValue();
+                File target = new File(targetDir, entry.getKey());
+                if (!isSame(source, target)) {
+                    FileUtils.copyFile(source, target, true);
+                    copiedFiles++;
+                }
+            }
+            if (targetDir.exists()) {
+                deleteOtherFiles(targetDir, "", files);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to synchronize " + targetDir, e);
+        }
+    }
+
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    public int getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    protected boolean isSame(File source, File target) throws IOException {
+        if (!target.isFile() || source.length() != target.length()) {
+            return false;
+        }
+        // timestamps are not compared: a file rewritten within the timestamp resolution keeps its modification time
+        return FileUtils.contentEquals(source, target);
+    }
+
+    /**
+     * @return true if the directory is empty after deletion
+     */
+    protected boolean deleteOtherFiles(File dir, String path, Map<String, File> files) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return false;
+        }
+        boolean empty = true;
+        for (File child : children) {
+            String childPath = path + child.getName();
+            if (child.isDirectory()) {
+                if (deleteOtherFiles(child, childPath + "/", files)) {
+                    FileUtils.deleteDirectory(child);
+                } else {
+                    empty = false;
+                }
+            } else if (files.containsKey(childPath)) {
+                empty = false;
+            } else {
+                FileUtils.forceDelete(child);
+                deletedFiles++;
+            }
+        }
+        return empty;
+    }
+}
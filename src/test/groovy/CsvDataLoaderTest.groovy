@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.CsvDataLoader
+import org.apache.commons.io.FileUtils
+import org.gradle.api.GradleException
+
+import java.nio.file.Paths
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.Timestamp
+
+class CsvDataLoaderTest extends GroovyTestCase {
+
+    private File testDir
+    private Connection connection
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        testDir = Paths.get("test-run", "csv-data-loader").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        testDir.mkdirs()
+
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:csv-data-loader", "sa", "")
+        execute('''create table SEC_ROLE (
+            ID varchar(36) not null primary key,
+            VERSION integer,
+            CREATE_TS timestamp,
+            NAME varchar(255),
+            IS_DEFAULT boolean,
+            PRIORITY numeric(10, 2),
+            LAST_DAY date)''')
+    }
+
+    @Override
+    void tearDown() {
+        execute('shutdown')
+        connection.close()
+        super.tearDown()
+    }
+
+    void testInsert() {
+        def file = write('10.sec-role-create-db.csv', '''SEC_ROLE(ID, VERSION, CREATE_TS, NAME, IS_DEFAULT, PRIORITY, LAST_DAY)
+0c018061-b26f-4de2-a5be-dff348347f93,1,2020-03-01 10:15:00,"Administrators, all",t,10.5,2020-12-31
+cd541dd4-eeb7-cd5b-847e-d32236552fa9,2,,Users,false,,
+6e2b1b54-a3ba-4ea5-91d5-e1c3b0b6b6ab,3,2020-03-02 00:00:00,"",1,-1,2021-01-01
+''')
+        def loader = new CsvDataLoader(connection, 'hsql')
+        loader.batchSize = 2
+
+        assertEquals(3, loader.load(file))
+        assertTrue(connection.autoCommit)
+
+        def rows = query('select ID, VERSION, CREATE_TS, NAME, IS_DEFAULT, PRIORITY, LAST_DAY from SEC_ROLE order by VERSION')
+        assertEquals(3, rows.size())
+        assertEquals(['0c018061-b26f-4de2-a5be-dff348347f93', 1, Timestamp.valueOf('2020-03-01 10:15:00'),
+                      'Administrators, all', true, new BigDecimal('10.50'), java.sql.Date.valueOf('2020-12-31')], rows[0])
+        assertEquals(['cd541dd4-eeb7-cd5b-847e-d32236552fa9', 2, null, 'Users', false, null, null], rows[1])
+        assertEquals('', rows[2][3])
+        assertEquals(true, rows[2][4])
+        assertEquals(new BigDecimal('-1.00'), rows[2][5])
+    }
+
+    void testTabSeparated() {
+        def file = write('10.sec-role-create-db.tsv', 'SEC_ROLE(ID, NAME)\nr1\tAdministrators\nr2\t"tab\there"\n')
+
+        assertEquals(2, new CsvDataLoader(connection, 'hsql').load(file))
+        assertEquals([['r1', 'Administrators'], ['r2', 'tab\there']], query('select ID, NAME from SEC_ROLE order by ID'))
+    }
+
+    void testInvalidValueRollsBack() {
+        def file = write('10.sec-role-create-db.csv', 'SEC_ROLE(ID, VERSION)\nr1,1\nr2,2\nr3,three\n')
+        def loader = new CsvDataLoader(connection, 'hsql')
+        loader.batchSize = 1
+
+        def message = shouldFail(GradleException) {
+            loader.load(file)
+        }
+        assertTrue(message, message.endsWith('10.sec-role-create-db.csv:4: invalid value of column 2: three'))
+        assertEquals([], query('select ID from SEC_ROLE'))
+        assertTrue(connection.autoCommit)
+    }
+
+    void testMissingHeader() {
+        def file = write('10.sec-role-create-db.csv', 'r1,1\n')
+
+        shouldFail(GradleException) {
+            new CsvDataLoader(connection, 'hsql').load(file)
+        }
+    }
+
+    private File write(String name, String content) {
+        def file = new File(testDir, name)
+        file.text = content
+        return file
+    }
+
+    private void execute(String sql) {
+        connection.createStatement().withCloseable { it.execute(sql) }
+    }
+
+    private List<List<Object>> query(String sql) {
+        List<List<Object>> rows = []
+        connection.createStatement().withCloseable { statement ->
+            def resultSet = statement.executeQuery(sql)
+            int columns = resultSet.metaData.columnCount
+            while (resultSet.next()) {
+                rows.add((1..columns).collect { resultSet.getObject(it) })
+            }
+        }
+        return rows
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.CsvDataLoader
+import com.haulmont.gradle.task.db.CsvRecordReader
+
+class CsvRecordReaderTest extends GroovyTestCase {
+
+    void testHeader() {
+        def header = CsvDataLoader.parseHeader('SEC_ROLE(ID, VERSION,NAME , ROLE_TYPE)')
+        assertEquals('SEC_ROLE', header.table)
+        assertEquals(['ID', 'VERSION', 'NAME', 'ROLE_TYPE'], header.columns)
+
+        assertEquals('public.SEC_ROLE', CsvDataLoader.parseHeader('public.SEC_ROLE(ID)').table)
+
+        assertNull(CsvDataLoader.parseHeader('ID,VERSION,NAME'))
+        assertNull(CsvDataLoader.parseHeader('SEC_ROLE(ID,,NAME)'))
+        assertNull(CsvDataLoader.parseHeader(null))
+    }
+
+    void testValues() {
+        def records = read('''1,plain,"quoted, with separator",
+2,"",,"multi
+line ""value"""\r
+\r
+3,a b ,"",x
+''', ',' as char)
+
+        assertEquals(3, records.size())
+        assertEquals(['1', 'plain', 'quoted, with separator', null], records[0])
+        assertEquals(['2', '', null, 'multi\nline "value"'], records[1])
+        assertEquals(['3', 'a b ', '', 'x'], records[2])
+    }
+
+    void testTabSeparated() {
+        def records = read('1\tAdministrators\t\n2\t"tab\tinside"\t10', '\t' as char)
+
+        assertEquals([['1', 'Administrators', null], ['2', 'tab\tinside', '10']], records)
+    }
+
+    void testLineNumbers() {
+        def reader = new CsvRecordReader(new StringReader('1,"a\nb"\n\n2,c\n'), ',' as char)
+        reader.next()
+        assertEquals(1, reader.recordLineNumber)
+        reader.next()
+        assertEquals(4, reader.recordLineNumber)
+        assertFalse(reader.hasNext())
+    }
+
+    void testUnterminatedQuote() {
+        shouldFail(IllegalStateException) {
+            read('1,"abc\n2,def', ',' as char)
+        }
+    }
+
+    private static List<List<String>> read(String content, char separator) {
+        List<List<String>> records = []
+        new CsvRecordReader(new StringReader(content), separator).withCloseable { reader ->
+            reader.each { records.add(it) }
+        }
+        return records
+    }
+}
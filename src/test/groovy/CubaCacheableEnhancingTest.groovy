@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.commons.io.FileUtils
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+
+import java.nio.file.Paths
+
+class CubaCacheableEnhancingTest extends GroovyTestCase {
+
+    private File testDir
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        testDir = Paths.get("test-run", "cacheable-enhancing").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        testDir.mkdirs()
+    }
+
+    void testClassesDirsRewired() {
+        Project project = createProject('global')
+        def sourceSet = project.sourceSets.main
+        Set<File> rawClassesDirs = sourceSet.output.classesDirs.files
+
+        new CubaPlugin().setupCacheableEnhancing(project, 'main', 'enhanceClasses')
+
+        def enhancingTask = project.tasks.getByName('enhanceClasses') as CubaCacheableEnhancing
+        def enhancedDir = new File(project.buildDir, 'enhanced-classes/main')
+
+        assertEquals(enhancedDir, enhancingTask.outputDir)
+        assertEquals(rawClassesDirs, enhancingTask.rawClassesDirs.files)
+        // jars, tests and dependent modules get enhanced classes
+        assertEquals([enhancedDir] as Set, sourceSet.output.classesDirs.files)
+        assertTrue(sourceSet.output.classesDirs.buildDependencies.getDependencies(null).contains(enhancingTask))
+        assertTrue(project.tasks.getByName('classes').taskDependencies.getDependencies(null).contains(enhancingTask))
+        // raw classes are produced by the compile task
+        def compileJava = project.tasks.getByName('compileJava')
+        assertTrue(enhancingTask.rawClassesDirs.buildDependencies.getDependencies(null).contains(compileJava))
+    }
+
+    void testEnhancerVersionIsStable() {
+        def firstTask = createProject('first').tasks.create('enhanceClasses', CubaCacheableEnhancing)
+        def secondTask = createProject('second').tasks.create('enhanceClasses', CubaCacheableEnhancing)
+
+        String version = firstTask.enhancerVersion
+        assertTrue(version ==~ /[0-9a-f]{40}/)
+        assertEquals(version, firstTask.enhancerVersion)
+        assertEquals(version, secondTask.enhancerVersion)
+    }
+
+    private Project createProject(String name) {
+        def project = ProjectBuilder.builder()
+                .withName(name)
+                .withProjectDir(new File(testDir, name))
+                .build()
+        project.apply(plugin: 'java')
+        return project
+    }
+}
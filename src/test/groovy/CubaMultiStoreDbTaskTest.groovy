@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ConnectionPools
+import groovy.sql.Sql
+import org.apache.commons.io.FileUtils
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+
+import java.nio.file.Paths
+import java.sql.DriverManager
+import java.sql.SQLException
+import java.util.logging.Logger
+
+class CubaMultiStoreDbTaskTest extends GroovyTestCase {
+
+    private static final List<String> STORES = ['store1', 'store2', 'store3']
+
+    private File dbDir
+    private Project project
+    private CubaMultiStoreDbTask multiStoreTask
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        def testDir = Paths.get("test-run", "multi-store-db").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        dbDir = new File(testDir, 'db')
+        project = ProjectBuilder.builder().withProjectDir(testDir).build()
+        multiStoreTask = project.tasks.create('updateAllStores', CubaMultiStoreDbTask)
+
+        STORES.each { String store ->
+            writeInitScript(store, 'create table FOO (ID integer)^')
+
+            def task = project.tasks.create("updateDb_$store", InMemoryDbUpdate)
+            task.connect(getDbName(store), dbDir)
+            task.storeName = store
+            multiStoreTask.stores(task)
+        }
+    }
+
+    @Override
+    void tearDown() {
+        ConnectionPools.closeAll()
+        STORES.each { String store ->
+            DriverManager.getConnection("jdbc:hsqldb:mem:${getDbName(store)}", 'sa', '').withCloseable { connection ->
+                connection.createStatement().withCloseable { it.execute('shutdown') }
+            }
+        }
+        super.tearDown()
+    }
+
+    void testAllStoresUpdated() {
+        multiStoreTask.maxParallelStores = 2
+        multiStoreTask.run()
+
+        STORES.each { String store ->
+            assertTrue(store, tableExists(store, 'FOO'))
+        }
+    }
+
+    void testFailedStoreDoesNotStopOthers() {
+        writeInitScript('store2', 'create tabel FOO (ID integer)^')
+
+        def message = shouldFail(GradleException) {
+            multiStoreTask.run()
+        }
+
+        assertTrue(message, message.startsWith('Unable to process 1 of 3 data stores:'))
+        assertTrue(message, message.contains('store2 (updateDb_store2)'))
+        assertTrue(tableExists('store1', 'FOO'))
+        assertFalse(tableExists('store2', 'FOO'))
+        assertTrue(tableExists('store3', 'FOO'))
+    }
+
+    void testFailuresAreAggregated() {
+        def sqlLevel = Logger.getLogger(Sql.name).level
+        writeInitScript('store1', 'create tabel FOO (ID integer)^')
+        writeInitScript('store3', 'create tabel FOO (ID integer)^')
+
+        GradleException exception = null
+        try {
+            multiStoreTask.run()
+        } catch (GradleException e) {
+            exception = e
+        }
+
+        assertNotNull(exception)
+        assertTrue(exception.message, exception.message.startsWith('Unable to process 2 of 3 data stores:'))
+        assertTrue(exception.message.contains('store1 (updateDb_store1)'))
+        assertTrue(exception.message.contains('store3 (updateDb_store3)'))
+        assertNotNull(exception.cause)
+        assertEquals(1, exception.suppressed.length)
+        assertTrue(tableExists('store2', 'FOO'))
+        // stores do not change the global level of the Sql logger
+        assertEquals(sqlLevel, Logger.getLogger(Sql.name).level)
+    }
+
+    private void writeInitScript(String store, String content) {
+        def file = new File(dbDir, "10-cuba/init_$store/hsql/create-db.sql")
+        file.parentFile.mkdirs()
+        file.text = content
+    }
+
+    private static String getDbName(String store) {
+        return "multi-store-$store"
+    }
+
+    private static boolean tableExists(String store, String table) {
+        DriverManager.getConnection("jdbc:hsqldb:mem:${getDbName(store)}", 'sa', '').withCloseable { connection ->
+            try {
+                connection.createStatement().withCloseable { it.executeQuery("select * from $table") }
+                return true
+            } catch (SQLException ignored) {
+                return false
+            }
+        }
+    }
+}
@@ -16,10 +16,15 @@
  */
 
 
+import com.haulmont.gradle.task.db.ScriptIndex
 import com.haulmont.gradle.task.db.Stores
+import groovy.io.FileType
 import org.apache.commons.io.FileUtils
 
+import java.nio.file.Path
 import java.nio.file.Paths
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
 
 import static com.haulmont.gradle.task.db.CubaDbTask.*;
 
@@ -210,6 +215,16 @@ class DbTaskTest extends GroovyTestCase {
         assertEquals(mssql2012InitFiles, scripts);
     }
 
+    public void testGetDataInitScripts() throws Exception {
+        File dataScript = new File(dbmsDir, "100-app/init/mssql/30.sec-role-create-db.csv")
+        dataScript.createNewFile()
+        new File(dbmsDir, "100-app/init/mssql/40.sec-user-create-db.tsv").createNewFile()
+
+        // SQL init scripts do not depend on the requested extensions
+        ScriptFinder scriptFinder = new ScriptFinder(Stores.MAIN, 'mssql', null, dbmsDir, ['csv'], null)
+        assertEquals(mssqlInitFiles + [dataScript], scriptFinder.getInitScripts(null))
+    }
+
     public void testGetInitScriptsForAdditionalStore() throws Exception {
         ScriptFinder scriptFinder = new ScriptFinder('addStore','mssql', null, dbmsDir, [], null)
         List<File> scripts = scriptFinder.getInitScripts(null)
@@ -226,6 +241,59 @@ class DbTaskTest extends GroovyTestCase {
         assertEquals(mssql2012UpdateFiles, scripts)
     }
 
+    public void testSharedScriptIndex() throws Exception {
+        ScriptIndex scriptIndex = new ScriptIndex(dbmsDir, 'mssql', '2012')
+        assertEquals(mssql2012UpdateFiles, new ScriptFinder(Stores.MAIN, scriptIndex, ['sql'], null).getUpdateScripts(null))
+        assertEquals(mssqlUpdateAddStoreFiles, new ScriptFinder('addStore', scriptIndex, ['sql'], null).getUpdateScripts(null))
+        assertEquals(mssql2012InitFiles, new ScriptFinder(Stores.MAIN, scriptIndex, ['sql'], null).getInitScripts(null))
+
+        File dataScript = new File(dbmsDir, "100-app/init/mssql/40.sec-role-create-db.csv")
+        dataScript.createNewFile()
+        // the index is built by the first query
+        assertEquals(mssql2012InitFiles, new ScriptFinder(Stores.MAIN, scriptIndex, ['sql', 'csv'], null).getInitScripts(null))
+
+        List<File> scripts = new ScriptFinder(Stores.MAIN, 'mssql', '2012', dbmsDir, ['sql', 'csv'], null).getInitScripts(null)
+        assertEquals(mssql2012InitFiles + [dataScript], scripts)
+    }
+
+    public void testScriptsFromArchives() throws Exception {
+        File archive = new File(dbmsDir.parentFile, "db-scripts.zip")
+        File addonArchive = new File(dbmsDir.parentFile, "db-scripts-addon.zip")
+        zip(archive, dbmsDir, { !it.startsWith('50-addon/') })
+        zip(addonArchive, dbmsDir, { it.startsWith('50-addon/') })
+
+        def dirIndex = new ScriptIndex(dbmsDir, 'mssql', '2012')
+        def archiveIndex = ScriptIndex.forArchives([archive, addonArchive], 'mssql', '2012')
+        try {
+            assertEquals(dirIndex.getModuleDirs(), archiveIndex.getModuleDirs())
+
+            def dirFinder = new ScriptFinder(Stores.MAIN, dirIndex, ['sql'], null)
+            def archiveFinder = new ScriptFinder(Stores.MAIN, archiveIndex, ['sql'], null)
+
+            def names = { ScriptIndex index, List<Path> scripts -> scripts.collect { index.getScriptName(it) } }
+            assertEquals(names(dirIndex, dirFinder.getUpdateScriptPaths(null)), names(archiveIndex, archiveFinder.getUpdateScriptPaths(null)))
+            assertEquals(names(dirIndex, dirFinder.getInitScriptPaths(null)), names(archiveIndex, archiveFinder.getInitScriptPaths(null)))
+
+            def script = archiveFinder.getInitScriptPaths('50-addon').last()
+            assertEquals('50-addon/init/mssql-2012/40.create-db.sql', archiveIndex.getScriptName(script))
+        } finally {
+            archiveIndex.close()
+        }
+    }
+
+    private static void zip(File archive, File dir, Closure<Boolean> filter) {
+        new ZipOutputStream(new FileOutputStream(archive)).withCloseable { zip ->
+            dir.eachFileRecurse(FileType.FILES) { File file ->
+                String name = dir.toPath().relativize(file.toPath()).toString().replace('\\', '/')
+                if (filter(name)) {
+                    zip.putNextEntry(new ZipEntry(name))
+                    zip.write(file.bytes)
+                    zip.closeEntry()
+                }
+            }
+        }
+    }
+
     public void testGetUpdateScriptsForAdditionalDatastore() throws Exception {
         ScriptFinder scriptFinder = new ScriptFinder('addStore','mssql', null, dbmsDir, ['sql'], null)
         List<File> scripts = scriptFinder.getUpdateScripts(null)
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ConnectionPools
+import org.apache.commons.io.FileUtils
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+
+import java.nio.file.Paths
+import java.sql.Connection
+import java.sql.DriverManager
+
+class DbUpdateFingerprintTest extends GroovyTestCase {
+
+    private static final String DB_NAME = 'db-update-fingerprint'
+
+    private File dbDir
+    private InMemoryDbUpdate task
+    private Connection connection
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        def testDir = Paths.get("test-run", "db-update-fingerprint").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        dbDir = new File(testDir, 'db')
+        writeScript('10-cuba/init/hsql/create-db.sql', 'create table FOO (ID integer)^')
+        writeScript('10-cuba/update/hsql/20/200101-1.sql', 'create table BAR (ID integer)^')
+
+        Project project = ProjectBuilder.builder().withProjectDir(testDir).build()
+        task = project.tasks.create('updateDb', InMemoryDbUpdate)
+        task.connect(DB_NAME, dbDir)
+        task.fingerprintEnabled = true
+
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:$DB_NAME", 'sa', '')
+    }
+
+    @Override
+    void tearDown() {
+        ConnectionPools.closeAll()
+        connection.createStatement().withCloseable { it.execute('shutdown') }
+        connection.close()
+        super.tearDown()
+    }
+
+    void testUnchangedScriptsAreSkipped() {
+        task.updateDb()
+        assertEquals(1, task.checkedUpdates)
+        assertEquals(1, count("select count(*) from SYS_DB_CHANGELOG where SCRIPT_NAME like '#fingerprint:%'"))
+
+        task.updateDb()
+        assertEquals(1, task.checkedUpdates)
+    }
+
+    void testAddedScriptInvalidatesFingerprint() {
+        task.updateDb()
+
+        writeScript('10-cuba/update/hsql/20/200102-1.sql', 'insert into FOO (ID) values (1)^')
+        task.updateDb()
+        assertEquals(2, task.checkedUpdates)
+        assertEquals(1, count('select count(*) from FOO'))
+
+        task.updateDb()
+        assertEquals(2, task.checkedUpdates)
+    }
+
+    void testDeletedChangelogRowInvalidatesFingerprint() {
+        task.updateDb()
+        writeScript('10-cuba/update/hsql/20/200102-1.sql', 'insert into FOO (ID) values (1)^')
+        task.updateDb()
+
+        // deleting the row of an executed script runs it again
+        execute("delete from SYS_DB_CHANGELOG where SCRIPT_NAME = '10-cuba/update/hsql/20/200102-1.sql'")
+        task.updateDb()
+        assertEquals(3, task.checkedUpdates)
+        assertEquals(2, count('select count(*) from FOO'))
+    }
+
+    void testFingerprintIsNotAnExecutedScript() {
+        task.updateDb()
+        // the synthetic row would be treated as a script of module '#fi', named 'ngerprint:...'
+        execute("insert into SYS_DB_CHANGELOG (SCRIPT_NAME, IS_INIT) values ('#fingerprint:x:10-cuba/update/hsql/20/200103-1.sql', 0)")
+
+        assertTrue(task.getExecutedScripts().every { !it.startsWith('#fingerprint:') })
+        assertEquals(['10-cuba/init/hsql/create-db.sql', '10-cuba/update/hsql/20/200101-1.sql'] as Set,
+                task.getExecutedScripts() as Set)
+    }
+
+    private void writeScript(String path, String content) {
+        def file = new File(dbDir, path)
+        file.parentFile.mkdirs()
+        file.text = content
+    }
+
+    private void execute(String sql) {
+        connection.createStatement().withCloseable { it.execute(sql) }
+    }
+
+    private long count(String sql) {
+        connection.createStatement().withCloseable { statement ->
+            def resultSet = statement.executeQuery(sql)
+            resultSet.next()
+            return resultSet.getLong(1)
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.utils.DirectorySync
+import org.apache.commons.io.FileUtils
+
+import java.nio.file.Paths
+
+class DirectorySyncTest extends GroovyTestCase {
+
+    private File sourceDir
+    private File targetDir
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        def testDir = Paths.get("test-run", "directory-sync").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        sourceDir = new File(testDir, 'source')
+        targetDir = new File(testDir, 'target')
+        sourceDir.mkdirs()
+    }
+
+    void testSync() {
+        def a = createFile(sourceDir, '10-cuba/init/postgres/create-db.sql', 'create table A')
+        def b = createFile(sourceDir, '10-cuba/update/postgres/20/b.sql', 'alter table B')
+
+        def sync = new DirectorySync()
+        sync.sync(['10-cuba/init/postgres/create-db.sql': a, '10-cuba/update/postgres/20/b.sql': b], targetDir)
+        assertEquals(2, sync.copiedFiles)
+        assertEquals('alter table B', new File(targetDir, '10-cuba/update/postgres/20/b.sql').text)
+
+        def targetA = new File(targetDir, '10-cuba/init/postgres/create-db.sql')
+        targetA.setLastModified(targetA.lastModified() - 10000)
+        long modified = targetA.lastModified()
+        b.text = 'alter table C'
+        def c = createFile(sourceDir, '10-cuba/update/postgres/30/c.sql', 'drop table C')
+
+        sync = new DirectorySync()
+        sync.sync(['10-cuba/init/postgres/create-db.sql': a, '10-cuba/update/postgres/30/c.sql': c,
+                   '10-cuba/update/postgres/20/b.sql': b], targetDir)
+        assertEquals(2, sync.copiedFiles)
+        assertEquals(0, sync.deletedFiles)
+        // same content with another timestamp is not copied
+        assertEquals(modified, targetA.lastModified())
+        assertEquals('alter table C', new File(targetDir, '10-cuba/update/postgres/20/b.sql').text)
+
+        sync = new DirectorySync()
+        sync.sync(['10-cuba/init/postgres/create-db.sql': a], targetDir)
+        assertEquals(0, sync.copiedFiles)
+        assertEquals(2, sync.deletedFiles)
+        assertFalse(new File(targetDir, '10-cuba/update').exists())
+        assertTrue(targetA.exists())
+    }
+
+    void testSameLengthAndTimestamp() {
+        def a = createFile(sourceDir, '10-cuba/init/postgres/create-db.sql', 'create table A')
+
+        new DirectorySync().sync(['10-cuba/init/postgres/create-db.sql': a], targetDir)
+
+        def targetA = new File(targetDir, '10-cuba/init/postgres/create-db.sql')
+        long modified = a.lastModified()
+        a.text = 'create table B'
+        a.setLastModified(modified)
+        targetA.setLastModified(modified)
+
+        def sync = new DirectorySync()
+        sync.sync(['10-cuba/init/postgres/create-db.sql': a], targetDir)
+        assertEquals(1, sync.copiedFiles)
+        assertEquals('create table B', targetA.text)
+    }
+
+    private static File createFile(File dir, String path, String content) {
+        def file = new File(dir, path)
+        file.parentFile.mkdirs()
+        file.text = content
+        return file
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.enhance.EnhancingStatistics
+
+import java.util.concurrent.TimeUnit
+
+class EnhancingStatisticsTest extends GroovyTestCase {
+
+    void testCounters() {
+        def statistics = new EnhancingStatistics()
+        statistics.wovenClasses = 3
+        statistics.classDeleted()
+        statistics.classSkipped()
+        statistics.classEnhanced('com.company.Customer', 1000, 4)
+        statistics.classEnhanced('com.company.Order', 2000, 2)
+
+        def map = statistics.toMap()
+        assertEquals(3, map.wovenClasses)
+        assertEquals(1, map.deletedClasses)
+        assertEquals(1, map.skippedClasses)
+        assertEquals(2, map.enhancedClasses)
+        assertEquals(6, map.instrumentedSetters)
+    }
+
+    void testPhaseTimes() {
+        def statistics = new EnhancingStatistics()
+        long start = System.nanoTime()
+        statistics.phaseFinished('weaving', start - TimeUnit.MILLISECONDS.toNanos(30))
+        statistics.phaseFinished('weaving', start - TimeUnit.MILLISECONDS.toNanos(20))
+        statistics.phaseFinished('cleanup', start - TimeUnit.MILLISECONDS.toNanos(10))
+
+        def phases = statistics.toMap().phaseTimeMillis as Map
+        assertEquals(['weaving', 'cleanup'], phases.keySet() as List)
+        // times of the same phase are summed
+        assertTrue(phases.weaving >= 50)
+        assertTrue(statistics.totalMillis >= 60)
+    }
+
+    void testSlowestClasses() {
+        def statistics = new EnhancingStatistics()
+        for (int i = 1; i <= 30; i++) {
+            statistics.classEnhanced("com.company.Entity$i", TimeUnit.MICROSECONDS.toNanos(i), 1)
+        }
+
+        def classes = statistics.toMap().slowestClasses as List<Map>
+        assertEquals(20, classes.size())
+        assertEquals('com.company.Entity30', classes.first().name)
+        assertEquals(30L, classes.first().timeMicros)
+        assertEquals('com.company.Entity11', classes.last().name)
+        assertEquals(30, statistics.enhancedClasses)
+    }
+}
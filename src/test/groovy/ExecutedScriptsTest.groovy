@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ExecutedScripts
+
+class ExecutedScriptsTest extends GroovyTestCase {
+
+    void testModulePrefixIsIgnored() {
+        def executedScripts = new ExecutedScripts([
+                '10-cuba/update/postgres/19/190122-1-addUserColumn.sql',
+                '50-addon/init/postgres/create-db.sql'
+        ])
+
+        assertTrue(executedScripts.contains('10-cuba/update/postgres/19/190122-1-addUserColumn.sql'))
+        // the prefix depends on the set of app components
+        assertTrue(executedScripts.contains('20-cuba/update/postgres/19/190122-1-addUserColumn.sql'))
+        assertTrue(executedScripts.contains('60-addon/init/postgres/create-db.sql'))
+
+        assertFalse(executedScripts.contains('10-cuba/update/postgres/19/190122-2-addRoleColumn.sql'))
+        assertFalse(executedScripts.contains('10-other/update/postgres/19/190122-1-addUserColumn.sql'))
+        // the path is compared case-sensitively, as in SYS_DB_CHANGELOG
+        assertFalse(executedScripts.contains('10-cuba/update/postgres/19/190122-1-ADDUSERCOLUMN.sql'))
+    }
+
+    void testFileNameIgnoresCase() {
+        def executedScripts = new ExecutedScripts(['100-app/init/postgres/01.App-Create-DB.sql'])
+
+        assertTrue(executedScripts.containsFileName('01.app-create-db.sql'))
+        assertTrue(executedScripts.containsFileName('01.APP-CREATE-DB.SQL'))
+        assertFalse(executedScripts.containsFileName('02.app-create-db.sql'))
+    }
+
+    void testShortNames() {
+        // names not longer than the module prefix are only known by file name
+        def executedScripts = new ExecutedScripts(['a.x'])
+
+        assertFalse(executedScripts.contains('a.x'))
+        assertTrue(executedScripts.containsFileName('A.X'))
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.widgetset.GwtModuleGraph
+import org.apache.commons.io.FileUtils
+
+import java.nio.file.Paths
+
+class GwtModuleGraphTest extends GroovyTestCase {
+
+    private File appSrc
+    private File addonSrc
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        def testDir = Paths.get("test-run", "gwt-module-graph").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        appSrc = new File(testDir, 'app/src')
+        addonSrc = new File(testDir, 'addon/src')
+    }
+
+    void testLoad() {
+        writeModule(appSrc, 'com.company.app.web.toolkit.ui.AppWidgetSet', '''
+            <inherits name="com.haulmont.cuba.web.widgets.WidgetSet"/>
+            <inherits name="com.company.addon.web.toolkit.ui.AddonWidgetSet"/>
+            <source path="client"/>
+            <source path="shared"/>''')
+        writeModule(addonSrc, 'com.company.addon.web.toolkit.ui.AddonWidgetSet', '''
+            <inherits name="com.company.app.web.toolkit.ui.AppWidgetSet"/>
+            <super-source path="emul"/>''')
+
+        def graph = GwtModuleGraph.load('com.company.app.web.toolkit.ui.AppWidgetSet', [appSrc, addonSrc])
+
+        // the module from a jar is not found, the cycle is followed once
+        assertEquals(['com.company.app.web.toolkit.ui.AppWidgetSet', 'com.company.addon.web.toolkit.ui.AddonWidgetSet'],
+                graph.modules.keySet() as List)
+        assertEquals([
+                'com/company/app/web/toolkit/ui/client',
+                'com/company/app/web/toolkit/ui/shared',
+                'com/company/app/web/toolkit/ui/public',
+                'com/company/addon/web/toolkit/ui/emul',
+                'com/company/addon/web/toolkit/ui/public'
+        ] as Set, graph.clientPaths)
+        assertTrue(graph.includePatterns.contains('com/company/app/web/toolkit/ui/AppWidgetSet.gwt.xml'))
+        assertTrue(graph.includePatterns.contains('com/company/app/web/toolkit/ui/client/**'))
+    }
+
+    void testConnectedComponents() {
+        writeModule(appSrc, 'com.company.app.web.toolkit.ui.AppWidgetSet', '''
+            <source path="client"/>''')
+        writeSource(appSrc, 'com/company/app/web/toolkit/ui/client/button/AppButtonConnector.java', '''
+package com.company.app.web.toolkit.ui.client.button;
+
+import com.company.app.web.toolkit.ui.AppButton;
+import com.vaadin.shared.ui.Connect;
+
+@Connect(AppButton.class)
+public class AppButtonConnector {
+}''')
+        writeSource(appSrc, 'com/company/app/web/toolkit/ui/client/field/AppFieldConnector.java', '''
+package com.company.app.web.toolkit.ui.client.field;
+
+import com.vaadin.shared.ui.Connect;
+
+@Connect(value = com.company.app.web.components.AppField.Inner.class, loadStyle = Connect.LoadStyle.LAZY)
+public class AppFieldConnector {
+}''')
+
+        def graph = GwtModuleGraph.load('com.company.app.web.toolkit.ui.AppWidgetSet', [appSrc])
+
+        assertEquals(['com/company/app/web/toolkit/ui', 'com/company/app/web/components'] as Set, graph.serverPaths)
+        // server components are included without subpackages
+        assertTrue(graph.includePatterns.contains('com/company/app/web/toolkit/ui/*'))
+        assertTrue(graph.includePatterns.contains('com/company/app/web/components/*'))
+        assertFalse(graph.includePatterns.contains('com/company/app/web/toolkit/**'))
+    }
+
+    void testModuleNotFound() {
+        assertNull(GwtModuleGraph.load('com.company.app.web.toolkit.ui.AppWidgetSet', [appSrc]))
+    }
+
+    private static void writeSource(File root, String path, String content) {
+        def file = new File(root, path)
+        file.parentFile.mkdirs()
+        file.text = content
+    }
+
+    private static void writeModule(File root, String name, String content) {
+        def file = new File(root, name.replace('.', '/') + '.gwt.xml')
+        file.parentFile.mkdirs()
+        file.text = """<?xml version="1.0" encoding="UTF-8"?>
+<!DOCTYPE module PUBLIC "-//Google Inc.//DTD Google Web Toolkit 2.5.1//EN"
+        "http://gwtproject.org/doctype/2.5.1/gwt-module.dtd">
+<module>$content
+</module>
+"""
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.widgetset.GwtUnitCache
+import org.apache.commons.io.FileUtils
+
+import java.nio.file.Paths
+
+class GwtUnitCacheTest extends GroovyTestCase {
+
+    private File testDir
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        testDir = Paths.get("test-run", "gwt-unit-cache").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        testDir.mkdirs()
+    }
+
+    void testCacheDirByClassPath() {
+        def cache = new GwtUnitCache(new File(testDir, 'cache'))
+        def sourceDir = new File(testDir, 'src')
+        sourceDir.mkdirs()
+        def jar = new File(testDir, 'vaadin-client-compiler-8.9.4.jar')
+        jar.text = 'compiler'
+
+        def dir = cache.getCacheDir(':app-web:buildWidgetSet', [sourceDir, jar])
+        assertTrue(dir.isDirectory())
+
+        // sources do not affect the directory
+        new File(sourceDir, 'Widget.java').text = 'class Widget {}'
+        assertEquals(dir, cache.getCacheDir(':app-web:buildWidgetSet', [sourceDir, jar]))
+
+        assertFalse(dir == cache.getCacheDir(':app-portal:buildWidgetSet', [sourceDir, jar]))
+
+        jar.text = 'another compiler'
+        assertFalse(dir == cache.getCacheDir(':app-web:buildWidgetSet', [sourceDir, jar]))
+    }
+
+    void testEvict() {
+        def rootDir = new File(testDir, 'cache')
+        def cache = new GwtUnitCache(rootDir)
+        def now = System.currentTimeMillis()
+        ['old': 3, 'recent': 2, 'current': 1].each { name, age ->
+            def dir = new File(rootDir, name)
+            dir.mkdirs()
+            new File(dir, 'gwt-unitCache-1').bytes = new byte[1000]
+            dir.setLastModified(now - age * 60000)
+        }
+
+        cache.evict(2500, new File(rootDir, 'current'))
+
+        assertTrue(new File(rootDir, 'current').exists())
+        assertTrue(new File(rootDir, 'recent').exists())
+        assertFalse(new File(rootDir, 'old').exists())
+    }
+}
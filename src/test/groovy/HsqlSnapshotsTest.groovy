@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.HsqlSnapshots
+import org.apache.commons.io.FileUtils
+
+import java.nio.file.Paths
+
+class HsqlSnapshotsTest extends GroovyTestCase {
+
+    private File snapshotsDir
+    private File dataDir
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        def testDir = Paths.get("test-run", "hsql-snapshots").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        snapshotsDir = new File(testDir, 'snapshots')
+        dataDir = new File(testDir, 'hsqldb')
+        dataDir.mkdirs()
+    }
+
+    void testSaveAndRestore() {
+        new File(dataDir, 'cubadb.properties').text = 'version=2.4.1'
+        new File(dataDir, 'cubadb.script').text = 'CREATE TABLE SYS_DB_CHANGELOG'
+        new File(dataDir, 'cubadb.lck').text = 'lock'
+
+        def snapshots = new HsqlSnapshots(snapshotsDir)
+        assertFalse(snapshots.exists('abc'))
+
+        assertTrue(snapshots.save('abc', new File(dataDir, 'cubadb')))
+        assertTrue(snapshots.exists('abc'))
+        assertFalse(new File(snapshotsDir, 'abc/db.lck').exists())
+
+        new File(dataDir, 'cubadb.script').text = 'CREATE TABLE SEC_USER'
+        new File(dataDir, 'cubadb.data').text = 'data'
+        new File(dataDir, 'cubadb.log').text = 'insert into SEC_USER'
+
+        snapshots.restore('abc', new File(dataDir, 'cubadb'))
+        assertEquals('CREATE TABLE SYS_DB_CHANGELOG', new File(dataDir, 'cubadb.script').text)
+        assertEquals('version=2.4.1', new File(dataDir, 'cubadb.properties').text)
+        assertFalse(new File(dataDir, 'cubadb.data').exists())
+        assertFalse(new File(dataDir, 'cubadb.log').exists())
+        assertFalse(new File(dataDir, 'cubadb.lck').exists())
+    }
+
+    void testUiServerLayout() {
+        // the UI server keeps the files in a subdirectory named as the database
+        def dbFile = new File(dataDir, 'cubadb/cubadb')
+        dbFile.parentFile.mkdirs()
+        new File(dataDir, 'cubadb/cubadb.properties').text = 'version=2.4.1'
+        new File(dataDir, 'cubadb/cubadb.script').text = 'CREATE TABLE SYS_DB_CHANGELOG'
+
+        def snapshots = new HsqlSnapshots(snapshotsDir)
+        assertTrue(snapshots.save('abc', dbFile))
+        assertEquals('CREATE TABLE SYS_DB_CHANGELOG', new File(snapshotsDir, 'abc/db.script').text)
+
+        new File(dataDir, 'cubadb/cubadb.script').text = 'CREATE TABLE SEC_USER'
+
+        snapshots.restore('abc', dbFile)
+        assertEquals('CREATE TABLE SYS_DB_CHANGELOG', new File(dataDir, 'cubadb/cubadb.script').text)
+        assertFalse(new File(dataDir, 'cubadb.script').exists())
+    }
+
+    void testSaveWithoutDbFiles() {
+        new File(dataDir, 'cubadb/cubadb.script').with {
+            parentFile.mkdirs()
+            text = 'CREATE TABLE SYS_DB_CHANGELOG'
+        }
+
+        def snapshots = new HsqlSnapshots(snapshotsDir)
+        assertFalse(snapshots.save('abc', new File(dataDir, 'cubadb')))
+        assertFalse(snapshots.exists('abc'))
+    }
+}
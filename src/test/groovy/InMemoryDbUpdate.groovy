@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ScriptExecutionReport
+
+/**
+ * Update task of an in-memory HSQL database, connected without app properties and the jdbc configuration.
+ */
+class InMemoryDbUpdate extends CubaDbUpdate {
+
+    /**
+     * Number of updates not skipped by the fingerprint.
+     */
+    int checkedUpdates
+
+    void connect(String dbName, File dbDir) {
+        this.dbms = HSQL_DBMS
+        this.driver = 'org.hsqldb.jdbc.JDBCDriver'
+        this.dbUrl = "jdbc:hsqldb:mem:$dbName"
+        this.dbUser = 'sa'
+        this.dbPassword = ''
+        this.timeStampType = 'timestamp'
+        this.dbDir = dbDir
+    }
+
+    @Override
+    protected void init() {
+        executionReport = new ScriptExecutionReport(REPORTED_STATEMENTS)
+    }
+
+    @Override
+    protected void runRequiredInitScripts() {
+        checkedUpdates++
+        super.runRequiredInitScripts()
+    }
+}
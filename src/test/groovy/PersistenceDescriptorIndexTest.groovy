@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.enhance.PersistenceDescriptorIndex
+import org.apache.commons.io.FileUtils
+import org.gradle.api.logging.Logging
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Paths
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class PersistenceDescriptorIndexTest extends GroovyTestCase {
+
+    private File testDir
+    private File jar
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        testDir = Paths.get("test-run", "descriptor-index").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        testDir.mkdirs()
+
+        jar = new File(testDir, 'app-global.jar')
+        new ZipOutputStream(new FileOutputStream(jar)).withCloseable { zip ->
+            addEntry(zip, 'com/company/app/persistence.xml', '''<?xml version="1.0" encoding="UTF-8"?>
+<persistence xmlns="http://java.sun.com/xml/ns/persistence" version="2.0">
+    <persistence-unit name="app" transaction-type="RESOURCE_LOCAL">
+        <class>com.company.app.entity.Customer</class>
+        <class>com.company.app.entity.Order</class>
+    </persistence-unit>
+</persistence>''')
+            addEntry(zip, 'com/company/app/metadata.xml', '''<?xml version="1.0" encoding="UTF-8"?>
+<metadata xmlns="http://schemas.haulmont.com/cuba/metadata.xsd">
+    <metadata-model root-package="com.company.app">
+        <class>com.company.app.entity.CustomerInfo</class>
+    </metadata-model>
+</metadata>''')
+            addEntry(zip, 'com/company/app/screens.xml', '<screen-config/>')
+        }
+    }
+
+    void testScanJar() {
+        def index = new PersistenceDescriptorIndex(new File(testDir, 'cache'), new File(testDir, 'hashes.properties'),
+                Logging.getLogger(PersistenceDescriptorIndexTest))
+
+        def descriptors = index.getDescriptors(jar, PersistenceDescriptorIndex.DEFAULT_PERSISTENCE_PATTERNS)
+        index.save()
+
+        assertEquals(['com/company/app/persistence.xml'], descriptors.persistence*.path)
+        assertEquals(['com.company.app.entity.Customer', 'com.company.app.entity.Order'],
+                descriptors.persistence[0].classes)
+
+        assertTrue(new File(testDir, 'hashes.properties').exists())
+        assertEquals(1, new File(testDir, 'cache').listFiles().length)
+    }
+
+    void testReadFromIndex() {
+        def cacheDir = new File(testDir, 'cache')
+        def hashesFile = new File(testDir, 'hashes.properties')
+        def logger = Logging.getLogger(PersistenceDescriptorIndexTest)
+
+        def index = new PersistenceDescriptorIndex(cacheDir, hashesFile, logger)
+        def scanned = index.getDescriptors(jar, PersistenceDescriptorIndex.DEFAULT_PERSISTENCE_PATTERNS)
+        index.save()
+
+        def indexFile = cacheDir.listFiles()[0]
+        indexFile.setLastModified(0)
+
+        index = new PersistenceDescriptorIndex(cacheDir, hashesFile, logger)
+        def cached = index.getDescriptors(jar, PersistenceDescriptorIndex.DEFAULT_PERSISTENCE_PATTERNS)
+
+        assertEquals(0, indexFile.lastModified())
+        assertEquals(scanned.hash, cached.hash)
+        assertEquals(scanned.persistence[0].content, cached.persistence[0].content)
+        assertEquals(scanned.persistence[0].classes, cached.persistence[0].classes)
+    }
+
+    void testCustomPatterns() {
+        def index = new PersistenceDescriptorIndex(new File(testDir, 'cache'), new File(testDir, 'hashes.properties'),
+                Logging.getLogger(PersistenceDescriptorIndexTest))
+
+        def descriptors = index.getDescriptors(jar, ['com/company/other/persistence.xml'])
+
+        assertTrue(descriptors.persistence.isEmpty())
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String content) {
+        zip.putNextEntry(new ZipEntry(name))
+        zip.write(content.getBytes(StandardCharsets.UTF_8))
+        zip.closeEntry()
+    }
+}
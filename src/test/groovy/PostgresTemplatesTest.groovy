@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.PostgresTemplates
+
+class PostgresTemplatesTest extends GroovyTestCase {
+
+    private static final String FINGERPRINT = '0123456789abcdef0123456789abcdef01234567'
+
+    void testTemplateName() {
+        String name = PostgresTemplates.getTemplateName('app_test', FINGERPRINT)
+        assertTrue(name ==~ /tpl_app_test_[0-9a-f]{8}_0123456789abcdef/)
+        assertEquals(name, PostgresTemplates.getTemplateName('app_test', FINGERPRINT))
+
+        String longName = PostgresTemplates.getTemplateName('a' * 100, FINGERPRINT)
+        assertTrue(longName.length() <= 63)
+    }
+
+    void testLongNamesWithCommonPrefix() {
+        String prefix = 'application_integration_tests_database_'
+        String first = PostgresTemplates.getTemplateName(prefix + 'first', FINGERPRINT)
+        String second = PostgresTemplates.getTemplateName(prefix + 'second', FINGERPRINT)
+        assertFalse(first == second)
+
+        assertEquals([first], PostgresTemplates.getTemplates([first, second], prefix + 'first'))
+        assertEquals([second], PostgresTemplates.getTemplates([first, second], prefix + 'second'))
+    }
+
+    void testTemplates() {
+        String current = PostgresTemplates.getTemplateName('app', FINGERPRINT)
+        String old = PostgresTemplates.getTemplateName('app', 'fedcba9876543210fedcba9876543210fedcba98')
+        String otherDb = PostgresTemplates.getTemplateName('app_test', FINGERPRINT)
+
+        def databases = ['app', 'postgres', current, old, otherDb, current + '_copy']
+        assertEquals([current, old], PostgresTemplates.getTemplates(databases, 'app'))
+    }
+}
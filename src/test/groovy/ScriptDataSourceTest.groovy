@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ScriptDataSource
+
+import java.sql.Connection
+
+class ScriptDataSourceTest extends GroovyTestCase {
+
+    void testLeakedConnectionsAreClosed() {
+        List<Map> states = []
+        def dataSource = new ScriptDataSource('10.upgrade.groovy', {
+            def state = [closes: 0]
+            states << state
+            [isClosed: { state.closes > 0 }, close: { state.closes++ }] as Connection
+        } as ScriptDataSource.ConnectionSource)
+
+        dataSource.getConnection().close()
+        dataSource.getConnection()
+        dataSource.getConnection()
+
+        dataSource.close()
+        assertEquals([1, 1, 1], states*.closes)
+    }
+}
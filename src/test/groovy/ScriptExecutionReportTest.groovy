@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ScriptExecutionReport
+import groovy.json.JsonSlurper
+
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+
+class ScriptExecutionReportTest extends GroovyTestCase {
+
+    void testSlowestStatements() {
+        def report = new ScriptExecutionReport(2)
+
+        def first = report.startScript('10-cuba/update/postgres/20/a.sql', 'sql')
+        first.statementExecuted('update A set X = 1', millis(30), 5)
+        first.statementExecuted('create index IDX_A on A (X)', millis(500), -1)
+        first.finish(false)
+
+        def second = report.startScript('10-cuba/update/postgres/20/b.sql', 'sql')
+        second.statementExecuted('delete from B', millis(100), 7)
+        second.statementExecuted('insert into B values (1)', millis(10), 1)
+        second.finish(true)
+
+        assertEquals(['create index IDX_A on A (X)', 'delete from B'], report.getSlowestStatements(10)*.sql)
+        assertEquals(5, first.rows)
+        assertEquals(8, second.rows)
+
+        def file = Paths.get('test-run', 'script-execution-report', 'updateDb.json').toFile()
+        report.writeJson(file)
+        def json = new JsonSlurper().parse(file)
+        assertEquals(2, json.scripts.size())
+        assertEquals(2, json.slowestStatements.size())
+        assertEquals(500, json.slowestStatements[0].durationMs)
+        assertEquals('10-cuba/update/postgres/20/b.sql', json.slowestStatements[1].script)
+        assertEquals(true, json.scripts.find { it.name.endsWith('b.sql') }.failed)
+
+        def summary = report.formatSummary(1)
+        assertTrue(summary.contains('create index IDX_A'))
+        assertFalse(summary.contains('delete from B'))
+    }
+
+    private static long millis(long value) {
+        TimeUnit.MILLISECONDS.toNanos(value)
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.ScriptSplitter
+import com.haulmont.gradle.task.db.ScriptTokenizer
+
+class ScriptTokenizerTest extends GroovyTestCase {
+
+    void testCompatibleWithSplitter() {
+        def scripts = [
+                '^'   : '''
+alter table FOO add BAR varchar(36)^--go
+alter table FOO add BOO varchar(255)^
+
+alter table ^^ABC REF_COMPANY(ID)^''',
+                ';'   : '''
+alter table FOO add BAR varchar(36);--go
+alter table FOO add BOO varchar(255);
+
+alter table ;;ABC REF_COMPANY(ID);''',
+                '--go': '''
+alter table FOO add BAR varchar(36)--go--bla
+alter table FOO add BOO varchar(255)
+--go
+
+alter table --go--goABC REF_COMPANY(ID)
+--go'''
+        ]
+
+        scripts.each { delimiter, script ->
+            assertEquals(new ScriptSplitter(delimiter).split(script), tokenize(script, delimiter))
+        }
+    }
+
+    void testQuotedDelimiter() {
+        def commands = tokenize('''insert into FOO (NAME) values ('a^b')^
+insert into FOO (NAME) values ('it''s ^ here')^
+select "weird^name" from FOO^
+select `weird^name` from FOO^''', '^')
+
+        assertEquals(4, commands.size())
+        assertEquals("insert into FOO (NAME) values ('a^b')", commands[0])
+        assertEquals("\ninsert into FOO (NAME) values ('it''s ^ here')", commands[1])
+        assertEquals('\nselect "weird^name" from FOO', commands[2])
+        assertEquals('\nselect `weird^name` from FOO', commands[3])
+    }
+
+    void testComments() {
+        def commands = tokenize('''-- don't split here
+create table FOO (ID int);
+/* a block comment; with a delimiter */
+create table BAR (ID int);
+insert into BAR values (1) -- comment at the end;
+insert into BAR values (2);''', ';')
+
+        assertEquals(4, commands.size())
+        assertEquals("-- don't split here\ncreate table FOO (ID int)", commands[0])
+        assertEquals('\n/* a block comment; with a delimiter */\ncreate table BAR (ID int)', commands[1])
+        assertEquals('\ninsert into BAR values (1) -- comment at the end', commands[2])
+    }
+
+    void testDollarQuoting() {
+        def commands = tokenize('''create function FOO() returns int as $$
+begin
+    return 1;
+end;
+$$ language plpgsql;
+create function BAR() returns text as $body$ select 'a;b' $body$ language sql;
+select $1;''', ';')
+
+        assertEquals(3, commands.size())
+        assertTrue(commands[0].endsWith('$$ language plpgsql'))
+        assertEquals("\ncreate function BAR() returns text as \$body\$ select 'a;b' \$body\$ language sql", commands[1])
+        assertEquals('\nselect $1', commands[2])
+    }
+
+    void testBackslashEscapes() {
+        def script = "insert into FOO values ('a\\'^b')^select 1^"
+
+        def commands = []
+        new ScriptTokenizer(new StringReader(script), '^', true).withCloseable { tokenizer ->
+            tokenizer.each { commands.add(it) }
+        }
+
+        assertEquals(["insert into FOO values ('a\\'^b')", 'select 1'], commands)
+    }
+
+    void testEscapeStringLiterals() {
+        def script = "insert into FOO values (E'it\\'s ^ here', 'a\\')^select e'\\\\'^select name'x^y'^"
+
+        def commands = []
+        new ScriptTokenizer(new StringReader(script), '^', false, true).withCloseable { tokenizer ->
+            tokenizer.each { commands.add(it) }
+        }
+
+        assertEquals(["insert into FOO values (E'it\\'s ^ here', 'a\\')", "select e'\\\\'", "select name'x^y'"],
+                commands)
+    }
+
+    void testLargeScript() {
+        def sb = new StringBuilder()
+        20000.times { i ->
+            sb.append("insert into SEC_USER (ID, LOGIN, NAME) values ('${UUID.randomUUID()}', 'user$i', 'User $i')^\n")
+        }
+        def script = sb.toString()
+
+        def commands = tokenize(script, '^')
+        assertEquals(20000, commands.count { it.trim() })
+        assertEquals(new ScriptSplitter('^').split(script), commands)
+    }
+
+    private static List<String> tokenize(String script, String delimiter) {
+        List<String> commands = []
+        new ScriptTokenizer(new StringReader(script), delimiter).withCloseable { tokenizer ->
+            while (tokenizer.hasNext()) {
+                commands.add(tokenizer.next())
+            }
+        }
+        return commands
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.TestDbForks
+import org.gradle.api.GradleException
+
+class TestDbForksTest extends GroovyTestCase {
+
+    void testForkDbNames() {
+        assertEquals(['app_test_1', 'app_test_2', 'app_test_3'], TestDbForks.getForkDbNames('app_test', 3))
+    }
+
+    void testForkUrls() {
+        assertEquals('jdbc:postgresql://localhost/app_test_2',
+                TestDbForks.getForkUrl('jdbc:postgresql://localhost/app_test', 'app_test', 'app_test_2'))
+        assertEquals('jdbc:postgresql://app_test/app_test_2?currentSchema=app_test',
+                TestDbForks.getForkUrl('jdbc:postgresql://app_test/app_test?currentSchema=app_test', 'app_test', 'app_test_2'))
+        assertEquals('jdbc:mysql://localhost/app_test_1?useSSL=false&allowMultiQueries=true',
+                TestDbForks.getForkUrl('jdbc:mysql://localhost/app_test?useSSL=false&allowMultiQueries=true', 'app_test', 'app_test_1'))
+        assertEquals('jdbc:sqlserver://localhost;databaseName=app_test_1;encrypt=false',
+                TestDbForks.getForkUrl('jdbc:sqlserver://localhost;databaseName=app_test;encrypt=false', 'app_test', 'app_test_1'))
+        assertEquals('jdbc:jtds:sqlserver://localhost/app_test_1',
+                TestDbForks.getForkUrl('jdbc:jtds:sqlserver://localhost/app_test', 'app_test', 'app_test_1'))
+
+        shouldFail(GradleException) {
+            TestDbForks.getForkUrl('jdbc:postgresql://localhost/app_test_other', 'app_test', 'app_test_1')
+        }
+    }
+
+    void testJvmArguments() {
+        def lockDir = new File('test-run/test-db-forks/locks')
+        def arguments = TestDbForks.getJvmArguments(
+                ['jdbc:postgresql://localhost/app_test_1', 'jdbc:postgresql://localhost/app_test_2'],
+                'cuba', null, lockDir)
+
+        assertEquals([
+                '-Dcuba.testDb.forks=2',
+                '-Dcuba.testDb.1.url=jdbc:postgresql://localhost/app_test_1',
+                '-Dcuba.testDb.2.url=jdbc:postgresql://localhost/app_test_2',
+                '-Dcuba.testDb.user=cuba',
+                '-Dcuba.testDb.password=',
+                "-Dcuba.testDb.lockDir=${lockDir.absolutePath}".toString()
+        ], arguments)
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008-2020 Haulmont.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.haulmont.gradle.task.db.UpgradeScriptCache
+import org.apache.commons.io.FileUtils
+import org.codehaus.groovy.runtime.InvokerHelper
+
+import java.nio.file.Paths
+
+class UpgradeScriptCacheTest extends GroovyTestCase {
+
+    private File testDir
+    private File cacheDir
+    private File script
+
+    @Override
+    void setUp() {
+        super.setUp()
+
+        testDir = Paths.get("test-run", "upgrade-script-cache").toFile()
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir)
+        }
+        testDir.mkdirs()
+        cacheDir = new File(testDir, 'cache')
+
+        script = new File(testDir, '10.upgrade.groovy')
+        script.text = '''
+def names = ['a', 'b'].collect { it.toUpperCase() }
+result.addAll(names)
+'''
+    }
+
+    void testCompiledOnce() {
+        def cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        Class scriptClass
+        try {
+            scriptClass = cache.getScriptClass(script)
+            assertEquals(['A', 'B'], run(scriptClass))
+            assertSame(scriptClass, cache.getScriptClass(script))
+        } finally {
+            cache.close()
+        }
+
+        def scriptDir = new File(cacheDir, scriptClass.name - 'UpgradeScript_')
+        def classFiles = scriptDir.listFiles().findAll { it.name.endsWith('.class') }
+        assertTrue(classFiles.size() >= 2) // script and closure classes
+        long modified = new File(scriptDir, scriptClass.name + '.class').lastModified()
+
+        cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        try {
+            assertEquals(scriptClass.name, cache.getScriptClass(script).name)
+            assertEquals(modified, new File(scriptDir, scriptClass.name + '.class').lastModified())
+        } finally {
+            cache.close()
+        }
+    }
+
+    void testChangedScriptAndVersion() {
+        def cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        try {
+            String name = cache.getScriptClass(script).name
+
+            script.text = 'result.add("C")'
+            Class changedClass = cache.getScriptClass(script)
+            assertFalse(name == changedClass.name)
+            assertEquals(['C'], run(changedClass))
+
+            def otherVersion = new UpgradeScriptCache(cacheDir, getClass().classLoader, '2.0')
+            try {
+                assertFalse(changedClass.name == otherVersion.getScriptClass(script).name)
+            } finally {
+                otherVersion.close()
+            }
+        } finally {
+            cache.close()
+        }
+    }
+
+    void testSameClassNamesInScripts() {
+        def otherScript = new File(testDir, '20.upgrade.groovy')
+        script.text = '''
+class Helper { static String value() { 'first' } }
+result.add(Helper.value())
+'''
+        otherScript.text = '''
+class Helper { static String value() { 'second' } }
+result.add(Helper.value())
+'''
+        def cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        try {
+            assertEquals(['first'], run(cache.getScriptClass(script)))
+            assertEquals(['second'], run(cache.getScriptClass(otherScript)))
+        } finally {
+            cache.close()
+        }
+
+        cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        try {
+            assertEquals(['second'], run(cache.getScriptClass(otherScript)))
+            assertEquals(['first'], run(cache.getScriptClass(script)))
+        } finally {
+            cache.close()
+        }
+    }
+
+    void testEvict() {
+        def otherScript = new File(testDir, '20.upgrade.groovy')
+        otherScript.text = 'result.add("D")'
+
+        def cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        String oldName
+        try {
+            oldName = cache.getScriptClass(script).name
+        } finally {
+            cache.close()
+        }
+        def oldDir = new File(cacheDir, oldName - 'UpgradeScript_')
+        oldDir.setLastModified(System.currentTimeMillis() - 60000)
+
+        cache = new UpgradeScriptCache(cacheDir, getClass().classLoader, '1.0')
+        String newName
+        try {
+            newName = cache.getScriptClass(otherScript).name
+        } finally {
+            cache.close()
+        }
+        cache.evict(0)
+
+        assertFalse(oldDir.exists())
+        assertTrue(new File(cacheDir, newName - 'UpgradeScript_').exists())
+    }
+
+    private static List run(Class scriptClass) {
+        def binding = new Binding()
+        binding.setProperty('result', [])
+        InvokerHelper.createScript(scriptClass, binding).run()
+        return binding.getProperty('result') as List
+    }
+}